@@ -0,0 +1,65 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+import com.weatherwise.models.Weather;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Gemensam testdata för benchmarks: inspelade API-svar och genererade aktivitetslistor
+ */
+final class BenchmarkData {
+
+    static final String[] CATEGORIES = {
+            "museum", "theatre", "cinema", "library", "mall",
+            "gallery", "park", "beach", "restaurant", "cafe"
+    };
+
+    private BenchmarkData() {}
+
+    /**
+     * Läs ett inspelat API-svar från src/jmh/resources/payloads
+     * @param name filnamn
+     * @return svaret som sträng
+     */
+    static String payload(String name) {
+        try (InputStream in = BenchmarkData.class.getResourceAsStream("/payloads/" + name)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing payload " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read payload " + name, e);
+        }
+    }
+
+    /**
+     * Generera aktiviteter runt Stockholm, jämnt fördelade över kategorierna
+     * @param count antal aktiviteter
+     * @return aktiviteter
+     */
+    static List<Activity> activities(int count) {
+        Random random = new Random(42);
+        List<Activity> activities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String category = CATEGORIES[i % CATEGORIES.length];
+            activities.add(new Activity(
+                    i,
+                    category + " " + i + ", Stockholm, Stockholms kommun, Sverige",
+                    category,
+                    59.30 + random.nextDouble() * 0.06,
+                    18.00 + random.nextDouble() * 0.12,
+                    random.nextBoolean()));
+        }
+        return activities;
+    }
+
+    static Weather rainyWeather() {
+        return new Weather("Stockholm", 8.4, "Rain", "lätt regn", 87, 4.6);
+    }
+}
@@ -0,0 +1,69 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+import com.weatherwise.models.Weather;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsning av inspelade svar från OpenWeather och Nominatim
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private WeatherService weatherService;
+    private LocationService locationService;
+    private String weatherJson;
+    private String activitiesJson;
+    private byte[] weatherBytes;
+    private byte[] activitiesBytes;
+
+    @Setup
+    public void setup() {
+        weatherService = new WeatherService("benchmark");
+        locationService = new LocationService();
+        weatherJson = BenchmarkData.payload("openweather-stockholm.json");
+        activitiesJson = BenchmarkData.payload("nominatim-stockholm-museum.json");
+        weatherBytes = weatherJson.getBytes(StandardCharsets.UTF_8);
+        activitiesBytes = activitiesJson.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Weather parseWeatherResponse() {
+        return weatherService.parseWeatherResponse(weatherJson);
+    }
+
+    @Benchmark
+    public List<Activity> parseActivitiesResponse() {
+        return locationService.parseActivitiesResponse(activitiesJson, "museum");
+    }
+
+    // samma parsning som mot API:t, direkt från svarets bytes
+    @Benchmark
+    public Weather parseWeatherResponseStream() {
+        return weatherService.parseWeatherResponse(new ByteArrayInputStream(weatherBytes));
+    }
+
+    @Benchmark
+    public List<Activity> parseActivitiesResponseStream() {
+        return locationService.parseActivitiesResponse(new ByteArrayInputStream(activitiesBytes), "museum");
+    }
+}
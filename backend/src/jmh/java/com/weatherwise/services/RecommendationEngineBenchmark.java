@@ -0,0 +1,62 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+import com.weatherwise.models.Recommendation;
+import com.weatherwise.models.Weather;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Poängsättning och diversifiering i RecommendationEngine för olika stora aktivitetslistor
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecommendationEngineBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    public int activityCount;
+
+    private RecommendationEngine engine;
+    private Weather weather;
+    private List<Activity> activities;
+    private List<Recommendation> sortedRecommendations;
+
+    @Setup
+    public void setup() {
+        engine = new RecommendationEngine();
+        weather = BenchmarkData.rainyWeather();
+        activities = BenchmarkData.activities(activityCount);
+
+        sortedRecommendations = new ArrayList<>(activityCount);
+        for (int i = 0; i < activities.size(); i++) {
+            sortedRecommendations.add(new Recommendation(activities.get(i), 100 - (i * 100 / activityCount), "bench"));
+        }
+    }
+
+    @Benchmark
+    public List<Recommendation> getRecommendations() {
+        return engine.getRecommendations(weather, activities);
+    }
+
+    @Benchmark
+    public List<Recommendation> diversifyRecommendations() {
+        return engine.diversifyRecommendations(sortedRecommendations);
+    }
+}
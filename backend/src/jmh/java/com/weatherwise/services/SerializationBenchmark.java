@@ -0,0 +1,120 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Recommendation;
+import io.javalin.json.JavalinJackson;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialisering av svar: Javalins standardmapper (ctx.json, via en String)
+ * mot ResponseMapper (Blackbird, utan null-fält, direkt till bytes eller
+ * till en ström). Storleken per svar skrivs ut vid start.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"10", "200"})
+    public int activityCount;
+
+    private JavalinJackson javalinDefault;
+    private ResponseMapper responseMapper;
+    private List<Recommendation> recommendations;
+    private Type type;
+    private ErrorBody error;
+    private final DiscardingOutputStream out = new DiscardingOutputStream();
+
+    @Setup
+    public void setup() throws IOException {
+        javalinDefault = new JavalinJackson();
+        responseMapper = new ResponseMapper();
+        recommendations = new RecommendationEngine()
+                .getRecommendations(BenchmarkData.rainyWeather(), BenchmarkData.activities(activityCount));
+        type = recommendations.getClass();
+        error = new ErrorBody("Weather Data NOT FOUND for city: Stockholm");
+
+        System.out.println();
+        System.out.println(recommendations.size() + " recommendations: "
+                + javalinDefault.toJsonString(recommendations, type).getBytes(StandardCharsets.UTF_8).length
+                + " bytes with Javalin's default mapper, "
+                + ResponseMapper.objectMapper().writeValueAsBytes(recommendations).length
+                + " bytes with ResponseMapper");
+    }
+
+    // som ctx.json före ResponseMapper: String, sedan UTF-8-bytes
+    @Benchmark
+    public byte[] recommendationsJavalinDefault() {
+        return javalinDefault.toJsonString(recommendations, type).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // som ResponseCache, som bygger svaret som bytes en gång
+    @Benchmark
+    public byte[] recommendationsResponseMapper() throws IOException {
+        return ResponseMapper.objectMapper().writeValueAsBytes(recommendations);
+    }
+
+    // som ResponseMapper.writeJson och BatchController, direkt till svarets ström
+    @Benchmark
+    public long recommendationsResponseMapperStream() throws IOException {
+        out.count = 0;
+        ResponseMapper.objectMapper().writer().writeValue(out, recommendations);
+        return out.count;
+    }
+
+    @Benchmark
+    public byte[] errorJavalinDefault() {
+        return javalinDefault.toJsonString(error, ErrorBody.class).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String errorResponseMapper() {
+        return responseMapper.toJsonString(error, ErrorBody.class);
+    }
+
+    /**
+     * Samma form som Main.ErrorResponse
+     */
+    public static class ErrorBody {
+        public String error;
+        public long timestamp;
+
+        ErrorBody(String error) {
+            this.error = error;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+
+    private static class DiscardingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
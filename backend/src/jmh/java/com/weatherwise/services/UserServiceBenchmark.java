@@ -0,0 +1,92 @@
+package com.weatherwise.services;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Uppslag på token medan en annan tråd hela tiden registrerar användare och
+ * sparar preferenser. Kör med olika antal trådar (-t 1, -t 2, -t 4 ...) för
+ * att se hur läsningarna skalar med antalet kärnor när det skrivs samtidigt.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    private static final int USERS = 10000;
+
+    private Path dataDir;
+    private UserService service;
+    private String[] tokens;
+    private Thread writer;
+    private volatile boolean running;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dataDir = Files.createTempDirectory("users-benchmark");
+        service = new UserService(dataDir);
+
+        List<String> registered = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            service.register("user-" + i, "secret", List.of("museum"));
+            registered.add(service.login("user-" + i, "secret").token);
+        }
+        tokens = registered.toArray(new String[0]);
+
+        running = true;
+        writer = new Thread(() -> {
+            int i = 0;
+            while (running) {
+                if (i % 2 == 0) {
+                    service.register("writer-" + i, "secret", List.of("park"));
+                } else {
+                    service.savePreferences(tokens[i % tokens.length], List.of("cafe", "park"));
+                }
+                i++;
+            }
+        }, "users-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        running = false;
+        writer.join();
+        try (Stream<Path> files = Files.walk(dataDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Reader {
+        int next;
+    }
+
+    @Benchmark
+    public UserService.User getByToken(Reader reader) {
+        return service.getByToken(tokens[reader.next++ % tokens.length]);
+    }
+}
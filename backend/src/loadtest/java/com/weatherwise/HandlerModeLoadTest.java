@@ -0,0 +1,154 @@
+package com.weatherwise;
+
+import com.weatherwise.models.Weather;
+import com.weatherwise.services.LatencyHistogram;
+import com.weatherwise.services.LocationService;
+import com.weatherwise.services.NominatimScheduler;
+import com.weatherwise.services.WeatherService;
+import io.javalin.Javalin;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Jämför HANDLER_MODE=blocking och async när OpenWeather svarar långsamt.
+ * Många klienter frågar efter väder medan en egen klient mäter hur snabbt
+ * /health svarar, med samma lilla Jetty-trådpool i båda lägena.
+ *
+ * Kör: mvn -Ploadtest test-compile exec:exec -Dloadtest.main=com.weatherwise.HandlerModeLoadTest
+ * Flaggor: seconds=10 clients=64 latencyMs=500 jettyThreads=16
+ */
+public class HandlerModeLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int seconds = intArg(args, "seconds", 10);
+        int clients = intArg(args, "clients", 64);
+        int latencyMs = intArg(args, "latencyMs", 500);
+        int jettyThreads = intArg(args, "jettyThreads", 16);
+
+        System.out.println("Upstream latency " + latencyMs + " ms, " + clients + " clients, "
+                + jettyThreads + " Jetty threads, " + seconds + " s per mode");
+
+        List<String> results = new ArrayList<>();
+        for (String mode : List.of("blocking", "async")) {
+            results.add(run(mode, seconds, clients, latencyMs, jettyThreads));
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-9s %10s %8s %14s %14s", "mode", "requests", "req/s", "health p50 ms", "health p99 ms"));
+        results.forEach(System.out::println);
+        System.exit(0);
+    }
+
+    private static String run(String mode, int seconds, int clients, int latencyMs, int jettyThreads) throws Exception {
+        Properties props = new Properties();
+        props.setProperty("HANDLER_MODE", mode);
+        props.setProperty("JETTY_MAX_THREADS", String.valueOf(jettyThreads));
+        props.setProperty("PREFETCH_HOT_KEYS", "0");
+
+        Javalin app = Main.createApp(new SlowWeatherService(latencyMs),
+                new LocationService(new NominatimScheduler(), null), null, props);
+        app.start(0);
+        String base = "http://localhost:" + app.port();
+
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        LongAdder completed = new LongAdder();
+        LatencyHistogram health = new LatencyHistogram();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            // olika städer, så att vädercachen inte svarar i stället för API:t
+            int client = i;
+            threads.add(start("client-" + i, () -> {
+                int n = 0;
+                while (System.nanoTime() < deadline) {
+                    if (get(http, base + "/api/v1/weather/city-" + client + "-" + (n++)) == 200) {
+                        completed.increment();
+                    }
+                }
+            }));
+        }
+        threads.add(start("health", () -> {
+            while (System.nanoTime() < deadline) {
+                long start = System.nanoTime();
+                get(http, base + "/health");
+                health.recordNanos(System.nanoTime() - start);
+                sleep(50);
+            }
+        }));
+
+        for (Thread t : threads) {
+            t.join();
+        }
+        app.stop();
+
+        return String.format("%-9s %10d %8.1f %14.1f %14.1f", mode, completed.sum(), completed.sum() / (double) seconds,
+                health.percentileMicros(50) / 1000.0, health.percentileMicros(99) / 1000.0);
+    }
+
+    private static int get(HttpClient http, String url) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(Duration.ofSeconds(30)).build();
+            return http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread t = new Thread(task, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int intArg(String[] args, String name, int defaultValue) {
+        for (String arg : args) {
+            if (arg.startsWith(name + "=")) {
+                return Integer.parseInt(arg.substring(name.length() + 1));
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Vädertjänst där varje hämtning tar latencyMs utan att hålla någon tråd
+     */
+    private static class SlowWeatherService extends WeatherService {
+        private final Executor delayed;
+
+        SlowWeatherService(int latencyMs) {
+            super("loadtest");
+            this.delayed = CompletableFuture.delayedExecutor(latencyMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public Weather getWeather(String city) {
+            return getWeatherAsync(city).join();
+        }
+
+        @Override
+        public CompletableFuture<Weather> getWeatherAsync(String city) {
+            return CompletableFuture.supplyAsync(() -> new Weather(city, 18, "Clear", "clear sky", 50, 3), delayed);
+        }
+    }
+}
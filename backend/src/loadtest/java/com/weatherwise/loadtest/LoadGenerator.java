@@ -0,0 +1,179 @@
+package com.weatherwise.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Skickar last mot appen enligt en av två modeller:
+ * closed: ett fast antal användare som var och en väntar på sitt svar (plus
+ * betänketid) innan nästa anrop, så lasten sjunker när appen blir långsam.
+ * open: anrop kommer med en fast takt (Poisson) oavsett hur snabbt appen svarar,
+ * som riktig trafik. Latensen räknas från när anropet skulle ha skickats, så att
+ * köer i generatorn inte döljer långsamma svar.
+ */
+public class LoadGenerator {
+
+    // mer än så här många obesvarade anrop i open-läget räknas som fel utan att skickas
+    private static final int MAX_IN_FLIGHT = 10_000;
+
+    private final String baseUrl;
+    private final List<Endpoint> endpoints;
+    private final int totalWeight;
+    private final HttpClient http;
+    private final LoadReport report;
+
+    public LoadGenerator(String baseUrl, List<Endpoint> endpoints, LoadReport report) {
+        this.baseUrl = baseUrl;
+        this.endpoints = endpoints;
+        this.totalWeight = endpoints.stream().mapToInt(e -> e.weight).sum();
+        this.report = report;
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    /**
+     * Closed model: users användare som skickar anrop i en loop
+     * @param users antal samtidiga användare
+     * @param thinkMillis paus mellan en användares anrop
+     * @param warmupNanos tid i början som inte räknas
+     * @param durationNanos mättid efter uppvärmningen
+     */
+    public void runClosed(int users, long thinkMillis, long warmupNanos, long durationNanos) throws InterruptedException {
+        long measureFrom = System.nanoTime() + warmupNanos;
+        long end = measureFrom + durationNanos;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            Thread t = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    Endpoint endpoint = pick();
+                    long start = System.nanoTime();
+                    int status = send(endpoint.path(ThreadLocalRandom.current()));
+                    if (start >= measureFrom) {
+                        report.record(endpoint.name, System.nanoTime() - start, status);
+                    }
+                    if (thinkMillis > 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(thinkMillis));
+                    }
+                }
+            }, "user-" + i);
+            t.setDaemon(true);
+            t.start();
+            threads.add(t);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+    }
+
+    /**
+     * Open model: ratePerSecond anrop per sekund med exponentialfördelade mellanrum
+     * @param ratePerSecond genomsnittlig takt
+     * @param warmupNanos tid i början som inte räknas
+     * @param durationNanos mättid efter uppvärmningen
+     */
+    public void runOpen(double ratePerSecond, long warmupNanos, long durationNanos) throws InterruptedException {
+        long start = System.nanoTime();
+        long measureFrom = start + warmupNanos;
+        long end = measureFrom + durationNanos;
+        double meanGapNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        AtomicInteger inFlight = new AtomicInteger();
+
+        long next = start;
+        while (next < end) {
+            next += (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanGapNanos);
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            long intended = next;
+            boolean measured = intended >= measureFrom;
+            Endpoint endpoint = pick();
+
+            if (inFlight.get() >= MAX_IN_FLIGHT) {
+                if (measured) {
+                    report.record(endpoint.name, System.nanoTime() - intended, -1);
+                }
+                continue;
+            }
+
+            inFlight.incrementAndGet();
+            http.sendAsync(request(endpoint.path(ThreadLocalRandom.current())), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        inFlight.decrementAndGet();
+                        if (measured) {
+                            report.record(endpoint.name, System.nanoTime() - intended,
+                                    error == null ? response.statusCode() : -1);
+                        }
+                    });
+        }
+
+        // vänta in anrop som skickades innan tiden tog slut
+        long drainUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+            Thread.sleep(10);
+        }
+    }
+
+    private Endpoint pick() {
+        int r = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Endpoint endpoint : endpoints) {
+            r -= endpoint.weight;
+            if (r < 0) {
+                return endpoint;
+            }
+        }
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+    private int send(String path) {
+        try {
+            return http.send(request(path), HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private HttpRequest request(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(30)).build();
+    }
+
+    /**
+     * En endpoint i lastmixen
+     */
+    public static class Endpoint {
+        final String name;
+        final int weight;
+        final PathTemplate template;
+
+        public Endpoint(String name, int weight, PathTemplate template) {
+            this.name = name;
+            this.weight = weight;
+            this.template = template;
+        }
+
+        String path(ThreadLocalRandom random) {
+            return template.path(random);
+        }
+    }
+
+    @FunctionalInterface
+    public interface PathTemplate {
+        String path(ThreadLocalRandom random);
+    }
+}
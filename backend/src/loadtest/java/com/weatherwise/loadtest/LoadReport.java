@@ -0,0 +1,78 @@
+package com.weatherwise.loadtest;
+
+import com.weatherwise.services.LatencyHistogram;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Resultat per endpoint: antal anrop, genomströmning, p50/p99/p999 och andel fel.
+ * Allt utom 200 och 304 räknas som fel, även anrop som aldrig fick något svar.
+ */
+public class LoadReport {
+
+    private final Map<String, EndpointStats> endpoints = new ConcurrentSkipListMap<>();
+    private final EndpointStats total = new EndpointStats();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    /**
+     * Registrera ett anrop
+     * @param endpoint endpointens namn
+     * @param latencyNanos tid från tänkt start till svar
+     * @param status HTTP-status, eller -1 om inget svar kom
+     */
+    public void record(String endpoint, long latencyNanos, int status) {
+        boolean ok = status == 200 || status == 304;
+        endpoints.computeIfAbsent(endpoint, e -> new EndpointStats()).record(latencyNanos, ok);
+        total.record(latencyNanos, ok);
+        statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+
+    /**
+     * Skriv ut rapporten
+     * @param seconds mätperiodens längd
+     */
+    public void print(double seconds) {
+        String header = String.format(Locale.ROOT, "%-40s %9s %9s %9s %9s %9s %9s %8s",
+                "endpoint", "requests", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms", "errors");
+        System.out.println(header);
+        System.out.println("-".repeat(header.length()));
+        for (Map.Entry<String, EndpointStats> e : endpoints.entrySet()) {
+            System.out.println(e.getValue().format(e.getKey(), seconds));
+        }
+        System.out.println("-".repeat(header.length()));
+        System.out.println(total.format("total", seconds));
+
+        StringBuilder byStatus = new StringBuilder("status codes:");
+        new ConcurrentSkipListMap<>(statuses).forEach((status, count) ->
+                byStatus.append(' ').append(status < 0 ? "no-response" : String.valueOf(status))
+                        .append('=').append(count.sum()));
+        System.out.println(byStatus);
+    }
+
+    private static class EndpointStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        void record(long latencyNanos, boolean ok) {
+            latency.recordNanos(latencyNanos);
+            if (!ok) {
+                errors.increment();
+            }
+        }
+
+        String format(String name, double seconds) {
+            long count = latency.getCount();
+            return String.format(Locale.ROOT, "%-40s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %7.2f%%",
+                    name, count, count / seconds,
+                    latency.percentileMicros(50) / 1000.0,
+                    latency.percentileMicros(99) / 1000.0,
+                    latency.percentileMicros(99.9) / 1000.0,
+                    latency.getMaxMicros() / 1000.0,
+                    count == 0 ? 0.0 : errors.sum() * 100.0 / count);
+        }
+    }
+}
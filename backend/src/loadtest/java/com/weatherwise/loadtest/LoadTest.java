@@ -0,0 +1,169 @@
+package com.weatherwise.loadtest;
+
+import com.weatherwise.Main;
+import com.weatherwise.services.FakeUpstreamServer;
+import com.weatherwise.services.LatencyDistribution;
+import io.javalin.Javalin;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lasttest helt utan nätverk: appen startas i samma process mot två fejkade
+ * API:er som spelar upp inspelade svar med valda svarstider och felandelar,
+ * och en lastgenerator kör en blandning av endpoints mot den.
+ *
+ * Kör: mvn -Ploadtest test-compile exec:exec -Dloadtest.args="model=open rate=300 seconds=60"
+ *
+ * Flaggor (key=value):
+ *   model=closed|open          closed: fast antal användare, open: fast takt (default closed)
+ *   users=50 think=0           closed: antal användare och betänketid i ms
+ *   rate=200                   open: anrop per sekund
+ *   seconds=30 warmup=5        mättid och uppvärmning som inte räknas
+ *   cities=200                 antal olika städer, styr hur ofta cachen träffar
+ *   mix=weather:4,recommendations:4,activities:1,coordinates:1
+ *   weatherLatency=lognormal:80:600 weatherErrors=0.01
+ *   nominatimLatency=lognormal:250:1500 nominatimErrors=0.02
+ *   payloads=katalog           egna inspelade svar (openweather-*.json, nominatim-*.json)
+ *   app.NYCKEL=värde           inställning till appen, som i config.properties
+ */
+public class LoadTest {
+
+    private static final String[] CATEGORY_SETS = {"cafe,park", "museum,restaurant", "cafe,museum,park"};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        Properties appProps = new Properties();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Expected key=value, got " + arg);
+            }
+            String key = arg.substring(0, eq);
+            String value = arg.substring(eq + 1);
+            if (key.startsWith("app.")) {
+                appProps.setProperty(key.substring(4), value);
+            } else {
+                options.put(key, value);
+            }
+        }
+
+        String model = options.getOrDefault("model", "closed");
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "30"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int cities = Integer.parseInt(options.getOrDefault("cities", "200"));
+        String payloadDir = options.get("payloads");
+
+        FakeUpstreamServer.Payloads payloads = FakeUpstreamServer.Payloads.load(payloadDir);
+        FakeUpstreamServer openWeather = new FakeUpstreamServer("openweather",
+                LatencyDistribution.parse(options.getOrDefault("weatherLatency", "lognormal:80:600")),
+                Double.parseDouble(options.getOrDefault("weatherErrors", "0.01")), payloads).start(0);
+        FakeUpstreamServer nominatim = new FakeUpstreamServer("nominatim",
+                LatencyDistribution.parse(options.getOrDefault("nominatimLatency", "lognormal:250:1500")),
+                Double.parseDouble(options.getOrDefault("nominatimErrors", "0.02")), payloads).start(0);
+
+        // appens inställningar, de fejkade API:erna ska inte begränsas som riktiga Nominatim
+        Path activityDb = Files.createTempFile("loadtest-activities", ".db");
+        activityDb.toFile().deleteOnExit();
+        Properties props = new Properties();
+        props.setProperty("OPENWEATHER_API_KEY", "loadtest");
+        props.setProperty("OPENWEATHER_BASE_URL", openWeather.getBaseUrl());
+        props.setProperty("NOMINATIM_BASE_URL", nominatim.getBaseUrl());
+        props.setProperty("ACTIVITY_DB_PATH", activityDb.toString());
+        props.setProperty("NOMINATIM_MAX_REQUESTS_PER_SECOND", "100000");
+        props.setProperty("NOMINATIM_BURST", "1000");
+        props.setProperty("NOMINATIM_MAX_CONCURRENT", "64");
+        props.setProperty("PREFETCH_HOT_KEYS", "0");
+        props.putAll(appProps);
+
+        Javalin app = Main.createApp(props);
+        app.start(0);
+
+        List<LoadGenerator.Endpoint> endpoints = endpoints(options.getOrDefault("mix",
+                "weather:4,recommendations:4,activities:1,coordinates:1"), cities);
+        LoadReport report = new LoadReport();
+        LoadGenerator generator = new LoadGenerator("http://localhost:" + app.port(), endpoints, report);
+
+        String load;
+        if (model.equals("open")) {
+            double rate = Double.parseDouble(options.getOrDefault("rate", "200"));
+            load = String.format(Locale.ROOT, "open model, %.0f req/s", rate);
+            System.out.println("Running " + load + " for " + warmup + " s warmup + " + seconds + " s");
+            generator.runOpen(rate, TimeUnit.SECONDS.toNanos(warmup), TimeUnit.SECONDS.toNanos(seconds));
+        } else if (model.equals("closed")) {
+            int users = Integer.parseInt(options.getOrDefault("users", "50"));
+            long think = Long.parseLong(options.getOrDefault("think", "0"));
+            load = "closed model, " + users + " users, " + think + " ms think time";
+            System.out.println("Running " + load + " for " + warmup + " s warmup + " + seconds + " s");
+            generator.runClosed(users, think, TimeUnit.SECONDS.toNanos(warmup), TimeUnit.SECONDS.toNanos(seconds));
+        } else {
+            throw new IllegalArgumentException("model must be closed or open");
+        }
+
+        app.stop();
+        openWeather.stop();
+        nominatim.stop();
+
+        System.out.println();
+        System.out.println("Load test: " + load + ", " + cities + " cities, " + seconds + " s measured");
+        report.print(seconds);
+        for (FakeUpstreamServer upstream : List.of(openWeather, nominatim)) {
+            System.out.println(String.format(Locale.ROOT, "upstream %-12s %8d calls, %6d simulated errors",
+                    upstream.getName(), upstream.getRequests(), upstream.getErrors()));
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Tolka lastmixen, t.ex. weather:4,recommendations:4
+     * @param mix endpoint:vikt, kommaseparerade
+     * @param cities antal olika städer
+     * @return endpoints med vikter
+     */
+    private static List<LoadGenerator.Endpoint> endpoints(String mix, int cities) {
+        List<LoadGenerator.Endpoint> endpoints = new ArrayList<>();
+        for (String part : mix.split(",")) {
+            String[] nameAndWeight = part.trim().split(":");
+            String name = nameAndWeight[0];
+            int weight = nameAndWeight.length > 1 ? Integer.parseInt(nameAndWeight[1]) : 1;
+            switch (name) {
+                case "weather":
+                    endpoints.add(new LoadGenerator.Endpoint("GET /api/v1/weather/{city}", weight,
+                            random -> "/api/v1/weather/City" + random.nextInt(cities)));
+                    break;
+                case "activities":
+                    endpoints.add(new LoadGenerator.Endpoint("GET /api/v1/activities", weight,
+                            random -> "/api/v1/activities?city=City" + random.nextInt(cities)
+                                    + "&categories=" + CATEGORY_SETS[random.nextInt(CATEGORY_SETS.length)]));
+                    break;
+                case "recommendations":
+                    endpoints.add(new LoadGenerator.Endpoint("GET /api/v1/recommendations", weight,
+                            random -> "/api/v1/recommendations?city=City" + random.nextInt(cities)
+                                    + "&categories=" + CATEGORY_SETS[random.nextInt(CATEGORY_SETS.length)]));
+                    break;
+                case "coordinates":
+                    // positioner i ett rutnät över södra Sverige, en per stad
+                    endpoints.add(new LoadGenerator.Endpoint("GET /api/v1/recommendations/coordinates", weight,
+                            random -> {
+                                int place = random.nextInt(cities);
+                                return String.format(Locale.ROOT,
+                                        "/api/v1/recommendations/coordinates?lat=%.2f&lon=%.2f&categories=%s",
+                                        55.5 + (place % 100) * 0.1, 12.5 + (place / 100) * 0.1,
+                                        CATEGORY_SETS[random.nextInt(CATEGORY_SETS.length)]);
+                            }));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown endpoint in mix: " + name
+                            + " (use weather, activities, recommendations, coordinates)");
+            }
+        }
+        return endpoints;
+    }
+}
@@ -1,27 +1,65 @@
 package com.weatherwise;
 
 import com.weatherwise.controllers.AuthController;
+import com.weatherwise.controllers.BatchController;
+import com.weatherwise.controllers.MetricsController;
+import com.weatherwise.controllers.RecommendationStreamController;
+import com.weatherwise.controllers.StaticAssetController;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.weatherwise.services.ActivityStore;
+import com.weatherwise.services.Categories;
 import com.weatherwise.services.UserService;
 import com.weatherwise.models.Activity;
 import com.weatherwise.models.Recommendation;
 import com.weatherwise.models.Weather;
+import com.weatherwise.services.CircuitBreaker;
+import com.weatherwise.services.CircuitBreakingUpstreamClient;
+import com.weatherwise.services.CityResolver;
+import com.weatherwise.services.FakeUpstreamServer;
 import com.weatherwise.services.LocationService;
+import com.weatherwise.services.MetricsRegistry;
+import com.weatherwise.services.NominatimScheduler;
+import com.weatherwise.services.Prefetcher;
 import com.weatherwise.services.RecommendationEngine;
+import com.weatherwise.services.ResponseCache;
+import com.weatherwise.services.ResponseMapper;
+import com.weatherwise.services.StaticAssets;
+import com.weatherwise.services.UnirestUpstreamClient;
+import com.weatherwise.services.UpstreamClient;
+import com.weatherwise.services.UpstreamUnavailableException;
 import com.weatherwise.services.WeatherService;
 import io.javalin.Javalin;
 import io.javalin.http.Context;
-import io.javalin.http.staticfiles.Location;
+import io.javalin.util.ConcurrencyUtil;
+import org.eclipse.jetty.server.Server;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class Main {
 
     private static WeatherService weatherService;
     private static LocationService locationService;
     private static RecommendationEngine recommendationEngine;
+    private static ResponseCache responseCache;
+    private static Prefetcher prefetcher;
+
+    // async: handlers lämnar tillbaka Jettys tråd medan de väntar på API:erna.
+    // blocking: request-tråden väntar på svaren, som före async-handlers
+    private static boolean asyncHandlers = true;
+
+    // RFC 7234, svaret bygger på senast kända data eftersom ett API inte svarar
+    private static final String STALE_WARNING = "110 - \"Response is Stale\"";
 
     public static void main(String[] args) throws IOException {
 
@@ -34,30 +72,139 @@ public class Main {
             props.load(in);
         }
 
+        Javalin app = createApp(props);
+        app.start(7000);
+        System.out.println("Server started on port 7000");
+    }
+
+    /**
+     * Skapa alla tjänster från config.properties och bygg appen
+     * @param props inlästa inställningar
+     * @return appen, inte startad
+     */
+    public static Javalin createApp(Properties props) {
+        String openWeatherUrl = props.getProperty("OPENWEATHER_BASE_URL", WeatherService.DEFAULT_BASE_URL);
+        String nominatimUrl = props.getProperty("NOMINATIM_BASE_URL", LocationService.DEFAULT_BASE_URL);
+        String activityDbPath = props.getProperty("ACTIVITY_DB_PATH", "data/activities.db");
         String apiKey = props.getProperty("OPENWEATHER_API_KEY");
+
+        // kör mot fejkade API:er i samma process, t.ex. offline eller vid lasttester
+        if (Boolean.parseBoolean(props.getProperty("FAKE_UPSTREAMS", "false"))) {
+            FakeUpstreamServer fakeUpstreams = new FakeUpstreamServer().start(0);
+            openWeatherUrl = fakeUpstreams.getBaseUrl();
+            nominatimUrl = fakeUpstreams.getBaseUrl();
+            activityDbPath = props.getProperty("ACTIVITY_DB_PATH", "data/activities-fake.db");
+            if (apiKey == null || apiKey.isBlank()) {
+                apiKey = "fake";
+            }
+        }
+
         if (apiKey == null || apiKey.isBlank()) {
             throw new RuntimeException("OPENWEATHER_API_KEY is missing in config.properties");
         }
 
-        weatherService = new WeatherService(apiKey);
-        locationService = new LocationService();
+        // en gemensam anslutningspool för båda API:erna, med tak per värd
+        UpstreamClient upstreamClient = new UnirestUpstreamClient(
+                (int) longProperty(props, "UPSTREAM_CONNECT_TIMEOUT_MILLIS", UnirestUpstreamClient.DEFAULT_CONNECT_TIMEOUT_MILLIS),
+                (int) longProperty(props, "UPSTREAM_READ_TIMEOUT_MILLIS", UnirestUpstreamClient.DEFAULT_READ_TIMEOUT_MILLIS),
+                (int) longProperty(props, "UPSTREAM_MAX_CONNECTIONS", UnirestUpstreamClient.DEFAULT_MAX_CONNECTIONS),
+                (int) longProperty(props, "UPSTREAM_MAX_CONNECTIONS_PER_HOST", UnirestUpstreamClient.DEFAULT_MAX_CONNECTIONS_PER_HOST),
+                longProperty(props, "UPSTREAM_KEEP_ALIVE_SECONDS", UnirestUpstreamClient.DEFAULT_KEEP_ALIVE_SECONDS));
+
+        // varsin circuit breaker, så att ett API som krånglar inte stänger av det andra
+        UpstreamClient openWeatherClient = new CircuitBreakingUpstreamClient(upstreamClient,
+                circuitBreaker("openweather", props));
+        UpstreamClient nominatimClient = new CircuitBreakingUpstreamClient(upstreamClient,
+                circuitBreaker("nominatim", props));
+
+        NominatimScheduler nominatimScheduler = new NominatimScheduler(
+                doubleProperty(props, "NOMINATIM_MAX_REQUESTS_PER_SECOND", NominatimScheduler.DEFAULT_MAX_REQUESTS_PER_SECOND),
+                (int) longProperty(props, "NOMINATIM_BURST", NominatimScheduler.DEFAULT_BURST),
+                (int) longProperty(props, "NOMINATIM_MAX_CONCURRENT", NominatimScheduler.DEFAULT_MAX_CONCURRENT),
+                (int) longProperty(props, "NOMINATIM_MAX_QUEUED", NominatimScheduler.DEFAULT_MAX_QUEUED));
+
+        // städer slås upp till koordinater en gång, sedan delar stads- och koordinatanrop cache
+        CityResolver cityResolver = new CityResolver(nominatimScheduler, nominatimClient, nominatimUrl,
+                longProperty(props, "GEOCODING_CACHE_TTL_SECONDS", CityResolver.DEFAULT_CACHE_TTL_SECONDS),
+                (int) longProperty(props, "GEOCODING_CACHE_MAX_SIZE", CityResolver.DEFAULT_CACHE_MAX_SIZE));
+
+        WeatherService weather = new WeatherService(apiKey,
+                longProperty(props, "WEATHER_CACHE_TTL_SECONDS", WeatherService.DEFAULT_CACHE_TTL_SECONDS),
+                (int) longProperty(props, "WEATHER_CACHE_MAX_SIZE", WeatherService.DEFAULT_CACHE_MAX_SIZE),
+                (int) longProperty(props, "WEATHER_CACHE_COORDINATE_PRECISION", WeatherService.DEFAULT_COORDINATE_PRECISION),
+                longProperty(props, "WEATHER_STALE_SECONDS", WeatherService.DEFAULT_STALE_SECONDS),
+                openWeatherClient, openWeatherUrl, cityResolver);
+        ActivityStore activityStore = new ActivityStore(
+                Paths.get(activityDbPath),
+                longProperty(props, "ACTIVITY_REFRESH_AFTER_SECONDS", ActivityStore.DEFAULT_REFRESH_AFTER_SECONDS),
+                longProperty(props, "ACTIVITY_MAX_AGE_SECONDS", ActivityStore.DEFAULT_MAX_AGE_SECONDS),
+                (int) longProperty(props, "ACTIVITY_DB_READ_THREADS", ActivityStore.DEFAULT_READ_THREADS));
+        LocationService location = new LocationService(nominatimScheduler, activityStore, nominatimClient, nominatimUrl,
+                cityResolver);
+
+        return createApp(weather, location, new UserService(), props);
+    }
+
+    /**
+     * Bygg appen med färdiga tjänster, t.ex. tjänster med fejkade API:er i lasttester
+     * @param weather vädertjänst
+     * @param location aktivitetstjänst
+     * @param userService användare, eller null för att utelämna auth-endpoints
+     * @param props inlästa inställningar
+     * @return appen, inte startad
+     */
+    public static Javalin createApp(WeatherService weather, LocationService location, UserService userService,
+                                    Properties props) {
+        weatherService = weather;
+        locationService = location;
         recommendationEngine = new RecommendationEngine();
+        responseCache = new ResponseCache(
+                longProperty(props, "WEATHER_CACHE_TTL_SECONDS", WeatherService.DEFAULT_CACHE_TTL_SECONDS),
+                (int) longProperty(props, "RESPONSE_CACHE_MAX_SIZE", ResponseCache.DEFAULT_MAX_SIZE));
+        prefetcher = new Prefetcher(weatherService, locationService,
+                (int) longProperty(props, "PREFETCH_MAX_REFRESHES_PER_MINUTE", Prefetcher.DEFAULT_MAX_REFRESHES_PER_MINUTE),
+                (int) longProperty(props, "PREFETCH_HOT_KEYS", Prefetcher.DEFAULT_HOT_KEYS),
+                Prefetcher.DEFAULT_INTERVAL_SECONDS);
+        prefetcher.start();
+
+        String handlerMode = props.getProperty("HANDLER_MODE", "async").trim();
+        if (!handlerMode.equals("async") && !handlerMode.equals("blocking")) {
+            throw new RuntimeException("HANDLER_MODE must be async or blocking in config.properties");
+        }
+        asyncHandlers = handlerMode.equals("async");
+        int maxJettyThreads = (int) longProperty(props, "JETTY_MAX_THREADS", 0);
+
+        MetricsController metricsController = new MetricsController(MetricsRegistry.global());
 
         Javalin app = Javalin.create(config -> {
             config.plugins.enableCors(cors -> cors.add(it -> it.anyHost()));
 
-            // Servera frontend från: src/main/resources/public
-            config.staticFiles.add(staticFiles -> {
-                staticFiles.hostedPath = "/";      // http://localhost:7001/
-                staticFiles.directory = "/public"; // resources/public
-                staticFiles.location = Location.CLASSPATH;
-            });
+            // Blackbird, utan null-fält, serialiserar direkt till bytes
+            config.jsonMapper(new ResponseMapper());
+
+            // Jettys trådpool använder virtuella trådar automatiskt på Java 21
+            if (maxJettyThreads > 0) {
+                config.jetty.server(() -> new Server(ConcurrencyUtil.jettyThreadPool("JettyServerThreadPool",
+                        Math.min(8, maxJettyThreads), maxJettyThreads)));
+            }
+
+            // latens per route till /metrics
+            config.requestLogger.http(metricsController::recordRequest);
         });
 
         app.get("/api", ctx -> ctx.json(new Response("WeatherWise Travel API", "1.0", "Running")));
         app.get("/health", ctx -> ctx.json(new Response("OK", "1.0", "Healthy")));
         app.get("/api/v1/test", ctx -> ctx.json(new Response("Test", "1.0", "Works!")));
 
+        // ===== METRICS =====
+        metricsController.registerRoutes(app);
+
+        // ===== FRONTEND =====
+        // src/main/resources/public, läst och gzippad en gång vid start
+        StaticAssetController staticAssetController = new StaticAssetController(
+                StaticAssets.load("/public", "index.html", "style.css", "app.js"));
+        staticAssetController.registerRoutes(app);
+
         // Väder- och aktivitetsendpoints
         app.get("/api/v1/weather/coordinates", Main::handleWeatherByCoordinates);
         app.get("/api/v1/activities/coordinates", Main::handleActivitiesByCoordinates);
@@ -67,13 +214,69 @@ public class Main {
         app.get("/api/v1/activities", Main::handleActivities);
         app.get("/api/v1/recommendations", Main::handleRecommendations);
 
+        // ===== BATCH =====
+        BatchController batchController = new BatchController(weatherService, locationService, recommendationEngine,
+                asyncHandlers, longProperty(props, "BATCH_TIMEOUT_SECONDS", BatchController.DEFAULT_TIMEOUT_SECONDS));
+        batchController.registerRoutes(app);
+
+        // ===== STREAM =====
+        RecommendationStreamController streamController =
+                new RecommendationStreamController(weatherService, locationService, recommendationEngine, prefetcher);
+        streamController.registerRoutes(app);
+
          // ===== AUTH (login/register/me) =====
-        UserService userService = new UserService();
-        AuthController authController = new AuthController(userService);
-        authController.registerRoutes(app);
-        
-        app.start(7000);
-        System.out.println("Server started on port 7000");
+        if (userService != null) {
+            AuthController authController = new AuthController(userService);
+            authController.registerRoutes(app);
+        }
+
+        System.out.println("Handler mode: " + handlerMode);
+        return app;
+    }
+
+    /**
+     * Circuit breaker för ett API med gränser från config.properties
+     * @param upstream API:ts namn
+     * @param props inlästa inställningar
+     * @return circuit breakern
+     */
+    private static CircuitBreaker circuitBreaker(String upstream, Properties props) {
+        return new CircuitBreaker(upstream,
+                (int) longProperty(props, "CIRCUIT_FAILURE_RATE_PERCENT", CircuitBreaker.DEFAULT_FAILURE_RATE_PERCENT),
+                longProperty(props, "CIRCUIT_SLOW_CALL_MILLIS", CircuitBreaker.DEFAULT_SLOW_CALL_MILLIS),
+                (int) longProperty(props, "CIRCUIT_SLOW_CALL_RATE_PERCENT", CircuitBreaker.DEFAULT_SLOW_CALL_RATE_PERCENT),
+                longProperty(props, "CIRCUIT_OPEN_SECONDS", CircuitBreaker.DEFAULT_OPEN_SECONDS));
+    }
+
+    /**
+     * Läs en valfri numerisk inställning ur config.properties
+     * @param props inlästa inställningar
+     * @param key nyckel
+     * @param defaultValue värde om nyckeln saknas
+     * @return inställt värde eller defaultValue
+     */
+    private static long longProperty(Properties props, String key, long defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(key + " must be a number in config.properties");
+        }
+    }
+
+    private static double doubleProperty(Properties props, String key, double defaultValue) {
+        String value = props.getProperty(key);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(key + " must be a number in config.properties");
+        }
     }
 
     private static void handleRecommendations(Context ctx) {
@@ -85,16 +288,32 @@ public class Main {
             return;
         }
 
-        List<String> categories = List.of(categoriesParam.split(","));
+        // sorterade och utan dubbletter, så att samma sökning alltid ger samma svar och cachenyckel
+        List<String> categories = new ArrayList<>(new TreeSet<>(Categories.parse(categoriesParam)));
+        if (categories.isEmpty()) {
+            ctx.status(400).json(new ErrorResponse("Missing city or categories parameter"));
+            return;
+        }
+        prefetcher.recordCity(city, categories);
+        String weatherKey = weatherService.cacheKey(city);
+        String responseKey = ResponseCache.key(weatherKey, categories, reasonFormat(ctx));
+
+        ResponseCache.CachedResponse cached = responseCache.get(responseKey);
+        if (cached != null) {
+            sendCached(ctx, cached);
+            return;
+        }
+
+        // väder och aktiviteter är oberoende, så båda hämtas samtidigt
+        CompletableFuture<Weather> weatherFuture = weatherService.getWeatherAsync(city);
+        CompletableFuture<List<Activity>> activitiesFuture = locationService.getActivitiesAsync(city, categories);
 
-        try {
-            Weather weather = weatherService.getWeather(city);
+        respond(ctx, weatherFuture.thenAcceptBoth(activitiesFuture, (weather, activities) -> {
             if (weather == null) {
                 ctx.status(404).json(new ErrorResponse("Weather Data NOT FOUND for city: " + city));
                 return;
             }
 
-            List<Activity> activities = locationService.getActivities(city, categories);
             if (activities == null || activities.isEmpty()) {
                 ctx.status(404).json(new ErrorResponse("Activities NOT FOUND for city: " + city));
                 return;
@@ -102,15 +321,13 @@ public class Main {
 
             List<Recommendation> recommendations = recommendationEngine.getRecommendations(weather, activities);
             if (recommendations != null && !recommendations.isEmpty()) {
-                ctx.status(200).json(recommendations);
+                applyReasonFormat(ctx, recommendations);
+                boolean stale = weather.isStale() || locationService.isStale(city, categories);
+                sendCached(ctx, serialize(ctx, responseKey, recommendations, weatherKey, stale));
             } else {
                 ctx.status(404).json(new ErrorResponse("Recommendation Data not found for city: " + city));
             }
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Server error: " + e.getMessage()));
-        }
+        }));
     }
 
     private static void handleWeather(Context ctx) {
@@ -121,17 +338,18 @@ public class Main {
             return;
         }
 
-        try {
-            Weather weather = weatherService.getWeather(city);
+        prefetcher.recordCity(city, null);
+
+        respond(ctx, weatherService.getWeatherAsync(city).thenAccept(weather -> {
             if (weather != null) {
-                ctx.status(200).json(weather);
+                if (weather.isStale()) {
+                    ctx.header("Warning", STALE_WARNING);
+                }
+                ResponseMapper.writeJson(ctx.status(200), weather);
             } else {
                 ctx.status(404).json(new ErrorResponse("Weather data not found"));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Server error: " + e.getMessage()));
-        }
+        }));
     }
 
     private static void handleActivities(Context ctx) {
@@ -143,19 +361,24 @@ public class Main {
             return;
         }
 
-        List<String> categories = List.of(categoriesParam.split(","));
+        List<String> categories = Categories.parse(categoriesParam);
+        if (categories.isEmpty()) {
+            ctx.status(400).json(new ErrorResponse("Missing city or categories parameter"));
+            return;
+        }
 
-        try {
-            List<Activity> activities = locationService.getActivities(city, categories);
+        prefetcher.recordCity(city, categories);
+
+        respond(ctx, locationService.getActivitiesAsync(city, categories).thenAccept(activities -> {
             if (activities != null && !activities.isEmpty()) {
-                ctx.status(200).json(activities);
+                if (locationService.isStale(city, categories)) {
+                    ctx.header("Warning", STALE_WARNING);
+                }
+                ResponseMapper.writeJson(ctx.status(200), activities);
             } else {
                 ctx.status(404).json(new ErrorResponse("Activities data not found"));
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Server error: " + e.getMessage()));
-        }
+        }));
     }
 
     private static void handleWeatherByCoordinates(Context ctx) {
@@ -167,28 +390,33 @@ public class Main {
             return;
         }
 
+        double lat;
+        double lon;
         try {
-            double lat = Double.parseDouble(latStr);
-            double lon = Double.parseDouble(lonStr);
+            lat = Double.parseDouble(latStr);
+            lon = Double.parseDouble(lonStr);
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(new ErrorResponse("Invalid coordinate format"));
+            return;
+        }
 
-            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
-                ctx.status(400).json(new ErrorResponse("Invalid coordinates"));
-                return;
-            }
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            ctx.status(400).json(new ErrorResponse("Invalid coordinates"));
+            return;
+        }
 
-            Weather weather = weatherService.getWeatherByCoordinates(lat, lon);
+        prefetcher.recordCoordinates(lat, lon, null);
 
+        respond(ctx, weatherService.getWeatherByCoordinatesAsync(lat, lon).thenAccept(weather -> {
             if (weather != null) {
-                ctx.status(200).json(weather);
+                if (weather.isStale()) {
+                    ctx.header("Warning", STALE_WARNING);
+                }
+                ResponseMapper.writeJson(ctx.status(200), weather);
             } else {
                 ctx.status(404).json(new ErrorResponse("Weather data not found"));
             }
-        } catch (NumberFormatException e) {
-            ctx.status(400).json(new ErrorResponse("Invalid coordinate format"));
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Server error: " + e.getMessage()));
-        }
+        }));
     }
 
     private static void handleActivitiesByCoordinates(Context ctx) {
@@ -201,31 +429,39 @@ public class Main {
             return;
         }
 
-        List<String> categories = List.of(categoriesParam.split(","));
-
+        List<String> categories = Categories.parse(categoriesParam);
+        if (categories.isEmpty()) {
+            ctx.status(400).json(new ErrorResponse("Missing lat, lon or categories  parameter"));
+            return;
+        }
 
+        double lat;
+        double lon;
         try {
-            double lat = Double.parseDouble(latStr);
-            double lon = Double.parseDouble(lonStr);
+            lat = Double.parseDouble(latStr);
+            lon = Double.parseDouble(lonStr);
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(new ErrorResponse("Invalid coordinate format"));
+            return;
+        }
 
-            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
-                ctx.status(400).json(new ErrorResponse("Invalid coordinates"));
-                return;
-            }
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            ctx.status(400).json(new ErrorResponse("Invalid coordinates"));
+            return;
+        }
 
-            List<Activity> activities = locationService.getActivitiesByCoordinates(lat, lon, categories);
+        prefetcher.recordCoordinates(lat, lon, categories);
 
+        respond(ctx, locationService.getActivitiesByCoordinatesAsync(lat, lon, categories).thenAccept(activities -> {
             if (activities != null && !activities.isEmpty()) {
-                ctx.status(200).json(activities);
+                if (locationService.isStale(lat, lon, categories)) {
+                    ctx.header("Warning", STALE_WARNING);
+                }
+                ResponseMapper.writeJson(ctx.status(200), activities);
             } else {
                 ctx.status(404).json(new ErrorResponse("Activities data not found"));
             }
-        } catch (NumberFormatException e) {
-            ctx.status(400).json(new ErrorResponse("Invalid coordinate format"));
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Server error: " + e.getMessage()));
-        }
+        }));
     }
 
     private static void handleRecommendationsByCoordinates(Context ctx) {
@@ -238,38 +474,156 @@ public class Main {
             return;
         }
 
-        List <String> categories = List.of(categoriesParam.split(","));
-
+        List<String> categories = new ArrayList<>(new TreeSet<>(Categories.parse(categoriesParam)));
+        if (categories.isEmpty()) {
+            ctx.status(400).json(new ErrorResponse("Missing lat or lon parameter"));
+            return;
+        }
 
+        double lat;
+        double lon;
         try {
-            double lat = Double.parseDouble(latStr);
-            double lon = Double.parseDouble(lonStr);
+            lat = Double.parseDouble(latStr);
+            lon = Double.parseDouble(lonStr);
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(new ErrorResponse("Invalid coordinate format"));
+            return;
+        }
 
-            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
-                ctx.status(400).json(new ErrorResponse("Invalid coordinates"));
-                return;
-            }
+        if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+            ctx.status(400).json(new ErrorResponse("Invalid coordinates"));
+            return;
+        }
 
-            Weather weather = weatherService.getWeatherByCoordinates(lat, lon);
+        prefetcher.recordCoordinates(lat, lon, categories);
+
+        // närliggande positioner delar svar på samma sätt som de delar väder
+        String weatherKey = weatherService.cacheKey(lat, lon);
+        String responseKey = ResponseCache.key(weatherKey, categories, reasonFormat(ctx));
+
+        ResponseCache.CachedResponse cached = responseCache.get(responseKey);
+        if (cached != null) {
+            sendCached(ctx, cached);
+            return;
+        }
+
+        CompletableFuture<Weather> weatherFuture = weatherService.getWeatherByCoordinatesAsync(lat, lon);
+        CompletableFuture<List<Activity>> activitiesFuture = locationService.getActivitiesByCoordinatesAsync(lat, lon, categories);
+
+        respond(ctx, weatherFuture.thenAcceptBoth(activitiesFuture, (weather, activities) -> {
             if (weather == null) {
                 ctx.status(404).json(new ErrorResponse("Weather NOT FOUND for coordinates: [" + lat + ", " + lon + "]"));
                 return;
             }
 
-            List<Activity> activities = locationService.getActivitiesByCoordinates(lat, lon, categories);
             if (activities == null || activities.isEmpty()) {
                 ctx.status(404).json(new ErrorResponse("Activities NOT FOUND near coordinates: [" + lat + ", " + lon + "]"));
                 return;
             }
 
             List<Recommendation> recommendations = recommendationEngine.getRecommendations(weather, activities);
-            ctx.status(200).json(recommendations);
+            applyReasonFormat(ctx, recommendations);
+            boolean stale = weather.isStale() || locationService.isStale(lat, lon, categories);
+            sendCached(ctx, serialize(ctx, responseKey, recommendations, weatherKey, stale));
+        }));
+    }
 
-        } catch (NumberFormatException e) {
-            ctx.status(400).json(new ErrorResponse("Invalid coordinate format"));
-        } catch (Exception e) {
-            e.printStackTrace();
-            ctx.status(500).json(new ErrorResponse("Server error: " + e.getMessage()));
+    /**
+     * Skicka svaret när hämtningarna är klara. I async-läget lämnas Jettys tråd
+     * tillbaka under tiden, i blocking-läget väntar request-tråden.
+     * @param ctx anropet
+     * @param response future som sätter svaret på ctx när den blir klar
+     */
+    private static void respond(Context ctx, CompletableFuture<Void> response) {
+        CompletableFuture<Void> handled = response.exceptionally(e -> {
+            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof UpstreamUnavailableException) {
+                // API:t är avstängt av sin circuit breaker och inget gammalt svar finns
+                UpstreamUnavailableException unavailable = (UpstreamUnavailableException) cause;
+                ctx.header("Retry-After", String.valueOf(unavailable.getRetryAfterSeconds()));
+                ctx.status(503).json(new ErrorResponse("Service temporarily unavailable: " + unavailable.getUpstream()));
+                return null;
+            }
+            cause.printStackTrace();
+            ctx.status(500).json(new ErrorResponse("Server error: " + cause.getMessage()));
+            return null;
+        });
+
+        if (asyncHandlers) {
+            ctx.future(() -> handled);
+        } else {
+            handled.join();
+        }
+    }
+
+    /**
+     * Serialisera ett svar och spara det i svarscachen. Svar som bygger på gammalt
+     * väder eller gamla aktiviteter markeras med en Warning-header och sparas inte.
+     * @param ctx anropet
+     * @param responseKey svarscachens nyckel
+     * @param recommendations rekommendationer som ska skickas
+     * @param weatherKey vädercachens nyckel
+     * @param stale om vädret eller aktiviteterna är gamla
+     * @return det serialiserade svaret
+     */
+    private static ResponseCache.CachedResponse serialize(Context ctx, String responseKey,
+                                                          List<Recommendation> recommendations, String weatherKey,
+                                                          boolean stale) {
+        if (stale) {
+            ctx.header("Warning", STALE_WARNING);
+        }
+        try {
+            return responseCache.put(responseKey, recommendations, stale ? 0 : responseTtlNanos(weatherKey));
+        } catch (JsonProcessingException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    private static String reasonFormat(Context ctx) {
+        return "codes".equals(ctx.queryParam("reasons")) ? "codes" : "text";
+    }
+
+    /**
+     * Skicka ett cachat svar, eller 304 om klienten redan har det
+     * @param ctx anropet
+     * @param cached serialiserat svar med ETag
+     */
+    private static void sendCached(Context ctx, ResponseCache.CachedResponse cached) {
+        ctx.header("ETag", cached.getEtag());
+        ctx.header("Cache-Control", "no-cache");
+
+        if (cached.matches(ctx.header("If-None-Match"))) {
+            ctx.status(304);
+            return;
+        }
+
+        ctx.status(200).contentType("application/json").result(cached.getBody());
+    }
+
+    /**
+     * Ett svar är giltigt så länge vädret det bygger på, men högst till nästa hel timme
+     * eftersom tidsbonusarna i RecommendationEngine räknas per timme
+     * @param weatherKey vädercachens nyckel
+     * @return giltighetstid i nanosekunder
+     */
+    private static long responseTtlNanos(String weatherKey) {
+        LocalDateTime now = LocalDateTime.now();
+        long untilNextHour = Duration.between(now, now.truncatedTo(ChronoUnit.HOURS).plusHours(1)).toNanos();
+        return Math.min(weatherService.freshnessNanos(weatherKey), untilNextHour);
+    }
+
+    /**
+     * Med ?reasons=codes skickas anledningarna som koder i stället för text,
+     * så att frontend kan översätta dem själv
+     * @param ctx anropet
+     * @param recommendations rekommendationer som ska skickas
+     */
+    static void applyReasonFormat(Context ctx, List<Recommendation> recommendations) {
+        if (!"codes".equals(ctx.queryParam("reasons"))) {
+            return;
+        }
+        for (Recommendation recommendation : recommendations) {
+            recommendation.useReasonCodes();
         }
     }
 
@@ -0,0 +1,333 @@
+package com.weatherwise.controllers;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.weatherwise.models.Activity;
+import com.weatherwise.models.Recommendation;
+import com.weatherwise.models.Weather;
+import com.weatherwise.services.Categories;
+import com.weatherwise.services.LocationService;
+import com.weatherwise.services.RecommendationEngine;
+import com.weatherwise.services.ResponseMapper;
+import com.weatherwise.services.UpstreamUnavailableException;
+import com.weatherwise.services.WeatherService;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Rekommendationer för många städer eller koordinater i ett anrop. Alla
+ * platser hämtas samtidigt, och samma väder eller samma (plats, kategori)
+ * hämtas bara en gång per batch. Svaret är NDJSON med en rad per plats,
+ * i den ordning platserna blir klara. I async-läget skrivs raderna från
+ * hämtningarnas trådar och Jettys tråd lämnas tillbaka under tiden. Platser
+ * som inte är klara inom tidsgränsen får en rad med status 504.
+ */
+public class BatchController {
+
+    public static final int MAX_BATCH_SIZE = 50;
+    public static final long DEFAULT_TIMEOUT_SECONDS = 60;
+
+    private final WeatherService weatherService;
+    private final LocationService locationService;
+    private final RecommendationEngine recommendationEngine;
+    private final boolean asyncHandlers;
+    private final long timeoutSeconds;
+    private final ObjectMapper mapper = ResponseMapper.objectMapper();
+
+    public BatchController(WeatherService weatherService, LocationService locationService,
+                           RecommendationEngine recommendationEngine) {
+        this(weatherService, locationService, recommendationEngine, true, DEFAULT_TIMEOUT_SECONDS);
+    }
+
+    /**
+     * BatchController-konstruktor
+     * @param weatherService väder
+     * @param locationService aktiviteter
+     * @param recommendationEngine poängsättning
+     * @param asyncHandlers true för att lämna tillbaka Jettys tråd medan platserna hämtas (HANDLER_MODE=async)
+     * @param timeoutSeconds hur länge en batch får hålla på innan resterande platser svarar 504
+     */
+    public BatchController(WeatherService weatherService, LocationService locationService,
+                           RecommendationEngine recommendationEngine, boolean asyncHandlers, long timeoutSeconds) {
+        this.weatherService = weatherService;
+        this.locationService = locationService;
+        this.recommendationEngine = recommendationEngine;
+        this.asyncHandlers = asyncHandlers;
+        this.timeoutSeconds = timeoutSeconds;
+    }
+
+    public void registerRoutes(Javalin app) {
+
+        // BATCH
+        app.post("/api/v1/recommendations/batch", this::handleBatch);
+    }
+
+    private void handleBatch(Context ctx) throws IOException {
+        BatchRequest body;
+        try {
+            body = ctx.bodyAsClass(BatchRequest.class);
+        } catch (UncheckedIOException e) {
+            // trasig eller fel formad JSON är klientens fel, inte ett serverfel
+            ctx.status(400).json(Map.of("error", "Invalid JSON body"));
+            return;
+        }
+
+        if (body == null || body.items == null || body.items.isEmpty()) {
+            ctx.status(400).json(Map.of("error", "Missing items"));
+            return;
+        }
+        if (body.items.size() > MAX_BATCH_SIZE) {
+            ctx.status(400).json(Map.of("error", "At most " + MAX_BATCH_SIZE + " items per batch"));
+            return;
+        }
+
+        boolean reasonCodes = "codes".equals(ctx.queryParam("reasons"));
+
+        ctx.status(200).contentType("application/x-ndjson");
+        NdjsonWriter writer = new NdjsonWriter(ctx.outputStream(), body.items);
+
+        // varje plats skrivs ut så fort den är klar, från tråden som gör den klar
+        Batch batch = new Batch();
+        List<CompletableFuture<Void>> written = new ArrayList<>();
+        for (int i = 0; i < body.items.size(); i++) {
+            int index = i;
+            BatchItem item = body.items.get(i);
+            written.add(resolve(batch, index, item, body.categories, reasonCodes)
+                    .exceptionally(e -> failed(index, item, e))
+                    .thenAccept(writer::write));
+        }
+
+        CompletableFuture<Void> done = CompletableFuture.allOf(written.toArray(new CompletableFuture[0]))
+                .orTimeout(timeoutSeconds, TimeUnit.SECONDS)
+                .handle((ignored, e) -> {
+                    writer.finish();
+                    return null;
+                });
+
+        if (asyncHandlers) {
+            ctx.future(() -> done);
+        } else {
+            done.join();
+        }
+    }
+
+    /**
+     * Skriver en NDJSON-rad per plats. Platserna blir klara på olika trådar,
+     * så skrivningarna får inte blandas ihop, och efter finish skrivs inget mer.
+     */
+    private class NdjsonWriter {
+        private final OutputStream out;
+        private final List<BatchItem> items;
+        private final boolean[] written;
+        private boolean finished;
+
+        NdjsonWriter(OutputStream out, List<BatchItem> items) {
+            this.out = out;
+            this.items = items;
+            this.written = new boolean[items.size()];
+        }
+
+        synchronized void write(ItemResult result) {
+            if (finished || written[result.index]) {
+                return;
+            }
+            written[result.index] = true;
+            try {
+                mapper.writeValue(out, result);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                // klienten har gått, resten av batchen skrivs inte
+                finished = true;
+            }
+        }
+
+        /**
+         * Skriv 504 för platser som inte hann bli klara, och släpp resultat som kommer senare
+         */
+        synchronized void finish() {
+            for (int i = 0; i < written.length; i++) {
+                if (!written[i]) {
+                    write(ItemResult.error(i, items.get(i), 504, "Timed out after " + timeoutSeconds + " s"));
+                }
+            }
+            finished = true;
+        }
+    }
+
+    /**
+     * Resultat för en plats vars hämtning kastade ett fel
+     * @param index platsens position i anropet
+     * @param item platsen
+     * @param e felet
+     * @return 503 om ett API är avstängt av sin circuit breaker, annars 500
+     */
+    private static ItemResult failed(int index, BatchItem item, Throwable e) {
+        Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+        if (cause instanceof UpstreamUnavailableException) {
+            return ItemResult.error(index, item, 503,
+                    "Service temporarily unavailable: " + ((UpstreamUnavailableException) cause).getUpstream());
+        }
+        return ItemResult.error(index, item, 500, "Server error: " + cause.getMessage());
+    }
+
+    /**
+     * Starta hämtningen för en plats
+     * @param batch batchens delade hämtningar
+     * @param index platsens position i anropet
+     * @param item platsen
+     * @param defaultCategories kategorier om platsen inte har egna
+     * @param reasonCodes skicka anledningarna som koder i stället för text
+     * @return future med platsens resultat
+     */
+    private CompletableFuture<ItemResult> resolve(Batch batch, int index, BatchItem item, List<String> defaultCategories,
+                                                  boolean reasonCodes) {
+        if (item == null) {
+            return CompletableFuture.completedFuture(ItemResult.error(index, null, 400, "Missing item"));
+        }
+
+        // samma kategori två gånger ger en sökning, precis som i de enskilda anropen
+        List<String> categories = Categories.normalize(
+                (item.categories != null && !item.categories.isEmpty()) ? item.categories : defaultCategories);
+        if (categories.isEmpty()) {
+            return CompletableFuture.completedFuture(ItemResult.error(index, item, 400, "Missing categories"));
+        }
+
+        boolean byCity = item.city != null && !item.city.isBlank();
+        if (!byCity) {
+            if (item.lat == null || item.lon == null) {
+                return CompletableFuture.completedFuture(ItemResult.error(index, item, 400, "Missing city or lat/lon"));
+            }
+            if (item.lat < -90 || item.lat > 90 || item.lon < -180 || item.lon > 180) {
+                return CompletableFuture.completedFuture(ItemResult.error(index, item, 400, "Invalid coordinates"));
+            }
+        }
+
+        CompletableFuture<Weather> weatherFuture = byCity
+                ? batch.weather(weatherService.cacheKey(item.city), () -> weatherService.getWeatherAsync(item.city))
+                : batch.weather(weatherService.cacheKey(item.lat, item.lon),
+                        () -> weatherService.getWeatherByCoordinatesAsync(item.lat, item.lon));
+
+        List<CompletableFuture<List<Activity>>> searches = new ArrayList<>();
+        for (String category : categories) {
+            searches.add(byCity
+                    ? batch.activities(locationService.searchKey(item.city, category),
+                            () -> locationService.getCategoryAsync(item.city, category))
+                    : batch.activities(locationService.searchKey(item.lat, item.lon, category),
+                            () -> locationService.getCategoryByCoordinatesAsync(item.lat, item.lon, category)));
+        }
+
+        List<CompletableFuture<?>> all = new ArrayList<>(searches);
+        all.add(weatherFuture);
+
+        return CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).thenApply(ignored -> {
+            Weather weather = weatherFuture.join();
+            if (weather == null) {
+                return ItemResult.error(index, item, 404, "Weather data not found");
+            }
+
+            // samma ordning som kategorierna, misslyckade kategorier hoppas över
+            List<Activity> activities = new ArrayList<>();
+            for (CompletableFuture<List<Activity>> search : searches) {
+                List<Activity> found = search.join();
+                if (found != null) {
+                    activities.addAll(found);
+                }
+            }
+            if (activities.isEmpty()) {
+                return ItemResult.error(index, item, 404, "Activities data not found");
+            }
+
+            List<Recommendation> recommendations = recommendationEngine.getRecommendations(weather, activities);
+            if (recommendations == null || recommendations.isEmpty()) {
+                return ItemResult.error(index, item, 404, "Recommendation data not found");
+            }
+
+            if (reasonCodes) {
+                for (Recommendation recommendation : recommendations) {
+                    recommendation.useReasonCodes();
+                }
+            }
+
+            ItemResult result = ItemResult.of(index, item, 200);
+            result.weather = weather;
+            result.recommendations = recommendations;
+            return result;
+        });
+    }
+
+    /**
+     * Hämtningar som delas av alla platser i en batch. Bara tråden som tar
+     * emot anropet startar hämtningar, så vanliga HashMaps räcker.
+     */
+    private static class Batch {
+        private final Map<String, CompletableFuture<Weather>> weather = new HashMap<>();
+        private final Map<String, CompletableFuture<List<Activity>>> activities = new HashMap<>();
+
+        CompletableFuture<Weather> weather(String key, Supplier<CompletableFuture<Weather>> fetch) {
+            return weather.computeIfAbsent(key, k -> fetch.get());
+        }
+
+        CompletableFuture<List<Activity>> activities(String key, Supplier<CompletableFuture<List<Activity>>> fetch) {
+            return activities.computeIfAbsent(key, k -> fetch.get());
+        }
+    }
+
+    // ================= Request-klasser =================
+
+    public static class BatchRequest {
+        public List<BatchItem> items;
+        public List<String> categories;
+    }
+
+    public static class BatchItem {
+        public String city;
+        public Double lat;
+        public Double lon;
+        public List<String> categories;
+    }
+
+    // ================= Svar =================
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class ItemResult {
+        public int index;
+        public String city;
+        public Double lat;
+        public Double lon;
+        public int status;
+        public String error;
+        public Weather weather;
+        public List<Recommendation> recommendations;
+
+        static ItemResult of(int index, BatchItem item, int status) {
+            ItemResult result = new ItemResult();
+            result.index = index;
+            result.status = status;
+            if (item != null) {
+                result.city = item.city;
+                result.lat = item.lat;
+                result.lon = item.lon;
+            }
+            return result;
+        }
+
+        static ItemResult error(int index, BatchItem item, int status, String error) {
+            ItemResult result = of(index, item, status);
+            result.error = error;
+            return result;
+        }
+    }
+}
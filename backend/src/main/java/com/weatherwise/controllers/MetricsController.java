@@ -0,0 +1,41 @@
+package com.weatherwise.controllers;
+
+import com.weatherwise.services.MetricsRegistry;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+public class MetricsController {
+
+    private final MetricsRegistry registry;
+
+    public MetricsController(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void registerRoutes(Javalin app) {
+
+        // pågående anrop räknas från before till after
+        app.before(ctx -> registry.requestStarted());
+        app.after(ctx -> registry.requestFinished());
+
+        // METRICS (Prometheus textformat)
+        app.get("/metrics", ctx -> ctx
+                .contentType("text/plain; version=0.0.4; charset=utf-8")
+                .result(registry.scrape()));
+    }
+
+    /**
+     * Registrera latensen för ett avslutat anrop. Kopplas in som Javalins
+     * requestLogger så att även anrop som slutar i ett undantag kommer med.
+     * @param ctx anropet
+     * @param ms latens i millisekunder
+     */
+    public void recordRequest(Context ctx, float ms) {
+        // utan matchande endpoint (404, statiska filer) ger Javalin ett felmeddelande i stället för en route
+        String route = ctx.endpointHandlerPath();
+        if (!route.startsWith("/")) {
+            route = "unmatched";
+        }
+        registry.recordRequest(ctx.method().name(), route, (long) (ms * 1000));
+    }
+}
@@ -0,0 +1,225 @@
+package com.weatherwise.controllers;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.weatherwise.models.Activity;
+import com.weatherwise.models.Recommendation;
+import com.weatherwise.models.Weather;
+import com.weatherwise.services.Categories;
+import com.weatherwise.services.LocationService;
+import com.weatherwise.services.Prefetcher;
+import com.weatherwise.services.RecommendationEngine;
+import com.weatherwise.services.UpstreamUnavailableException;
+import com.weatherwise.services.WeatherService;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+import io.javalin.http.sse.SseClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Rekommendationer som Server-Sent Events medan de hämtas, i stället för ett
+ * svar när alla kategorier är klara. Händelserna kommer i den här ordningen:
+ *   weather   vädret, så fort det är känt
+ *   category  poängsatta aktiviteter för en kategori, en per kategori i den ordning de blir klara
+ *   summary   den diversifierade topplistan med insikter, samma som /api/v1/recommendations
+ * Vid fel skickas en error-händelse och strömmen stängs.
+ */
+public class RecommendationStreamController {
+
+    private final WeatherService weatherService;
+    private final LocationService locationService;
+    private final RecommendationEngine recommendationEngine;
+    private final Prefetcher prefetcher;
+
+    public RecommendationStreamController(WeatherService weatherService, LocationService locationService,
+                                          RecommendationEngine recommendationEngine, Prefetcher prefetcher) {
+        this.weatherService = weatherService;
+        this.locationService = locationService;
+        this.recommendationEngine = recommendationEngine;
+        this.prefetcher = prefetcher;
+    }
+
+    public void registerRoutes(Javalin app) {
+
+        // STREAM (text/event-stream), ?city=... eller ?lat=...&lon=..., samt &categories=...
+        app.sse("/api/v1/recommendations/stream", this::handleStream);
+    }
+
+    private void handleStream(SseClient client) {
+        Context ctx = client.ctx();
+        String city = ctx.queryParam("city");
+        String categoriesParam = ctx.queryParam("categories");
+
+        // sorterade och utan dubbletter, precis som i /api/v1/recommendations
+        List<String> categories = new ArrayList<>(new TreeSet<>(Categories.parse(categoriesParam)));
+        if (categories.isEmpty()) {
+            fail(client, 400, "Missing categories parameter", 0);
+            return;
+        }
+
+        boolean byCity = city != null && !city.isBlank();
+        double lat = 0;
+        double lon = 0;
+        if (!byCity) {
+            try {
+                lat = Double.parseDouble(ctx.queryParam("lat"));
+                lon = Double.parseDouble(ctx.queryParam("lon"));
+            } catch (NullPointerException | NumberFormatException e) {
+                fail(client, 400, "Missing city or lat/lon parameter", 0);
+                return;
+            }
+            if (lat < -90 || lat > 90 || lon < -180 || lon > 180) {
+                fail(client, 400, "Invalid coordinates", 0);
+                return;
+            }
+        }
+        boolean reasonCodes = "codes".equals(ctx.queryParam("reasons"));
+
+        // strömmen hålls öppen tills summary eller error har skickats
+        client.keepAlive();
+
+        CompletableFuture<Weather> weatherFuture;
+        if (byCity) {
+            prefetcher.recordCity(city, categories);
+            weatherFuture = weatherService.getWeatherAsync(city);
+        } else {
+            prefetcher.recordCoordinates(lat, lon, categories);
+            weatherFuture = weatherService.getWeatherByCoordinatesAsync(lat, lon);
+        }
+
+        // kategorierna skickas först när vädret har skickats, eftersom poängen bygger på det
+        CompletableFuture<Weather> weatherSent = weatherFuture.thenApply(weather -> {
+            if (weather != null) {
+                send(client, "weather", weather);
+            }
+            return weather;
+        });
+
+        List<CompletableFuture<List<Activity>>> searches = new ArrayList<>();
+        List<CompletableFuture<Void>> categoriesSent = new ArrayList<>();
+        for (String category : categories) {
+            CompletableFuture<List<Activity>> search = byCity
+                    ? locationService.getCategoryAsync(city, category)
+                    : locationService.getCategoryByCoordinatesAsync(lat, lon, category);
+            searches.add(search);
+            categoriesSent.add(weatherSent.thenAcceptBoth(search, (weather, found) -> {
+                if (weather != null) {
+                    send(client, "category", categoryEvent(category, weather, found, reasonCodes));
+                }
+            }));
+        }
+
+        List<CompletableFuture<?>> all = new ArrayList<>(categoriesSent);
+        all.addAll(searches);
+        all.add(weatherSent);
+
+        double streamLat = lat;
+        double streamLon = lon;
+        CompletableFuture.allOf(all.toArray(new CompletableFuture[0])).thenRun(() -> {
+            Weather weather = weatherFuture.join();
+            if (weather == null) {
+                fail(client, 404, "Weather data not found", 0);
+                return;
+            }
+
+            // samma ordning som kategorierna, misslyckade kategorier hoppas över
+            List<Activity> activities = new ArrayList<>();
+            for (CompletableFuture<List<Activity>> search : searches) {
+                List<Activity> found = search.join();
+                if (found != null) {
+                    activities.addAll(found);
+                }
+            }
+            if (activities.isEmpty()) {
+                fail(client, 404, "Activities data not found", 0);
+                return;
+            }
+
+            SummaryEvent summary = new SummaryEvent();
+            summary.recommendations = recommendationEngine.getRecommendations(weather, activities);
+            if (reasonCodes) {
+                summary.recommendations.forEach(Recommendation::useReasonCodes);
+            }
+            summary.stale = weather.isStale() || (byCity
+                    ? locationService.isStale(city, categories)
+                    : locationService.isStale(streamLat, streamLon, categories));
+            send(client, "summary", summary);
+            client.close();
+        }).exceptionally(e -> {
+            Throwable cause = (e instanceof CompletionException && e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof UpstreamUnavailableException) {
+                UpstreamUnavailableException unavailable = (UpstreamUnavailableException) cause;
+                fail(client, 503, "Service temporarily unavailable: " + unavailable.getUpstream(),
+                        unavailable.getRetryAfterSeconds());
+            } else {
+                cause.printStackTrace();
+                fail(client, 500, "Server error: " + cause.getMessage(), 0);
+            }
+            return null;
+        });
+    }
+
+    private CategoryEvent categoryEvent(String category, Weather weather, List<Activity> found, boolean reasonCodes) {
+        CategoryEvent event = new CategoryEvent();
+        event.category = category;
+        if (found == null) {
+            // API:t svarade inte för kategorin, de andra kategorierna visas ändå
+            event.error = "Activities could not be fetched";
+            return event;
+        }
+        event.recommendations = recommendationEngine.scoreRecommendations(weather, found);
+        if (reasonCodes) {
+            event.recommendations.forEach(Recommendation::useReasonCodes);
+        }
+        return event;
+    }
+
+    /**
+     * Skicka en händelse. Kategorierna blir klara på olika trådar, så
+     * skrivningarna till strömmen får inte blandas ihop.
+     * @param client klienten
+     * @param event händelsens namn
+     * @param data serialiseras som JSON
+     */
+    private static void send(SseClient client, String event, Object data) {
+        synchronized (client) {
+            if (!client.terminated()) {
+                client.sendEvent(event, data);
+            }
+        }
+    }
+
+    private static void fail(SseClient client, int status, String error, long retryAfterSeconds) {
+        ErrorEvent event = new ErrorEvent();
+        event.status = status;
+        event.error = error;
+        event.retryAfterSeconds = (retryAfterSeconds > 0) ? retryAfterSeconds : null;
+        send(client, "error", event);
+        client.close();
+    }
+
+    // ================= Händelser =================
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class CategoryEvent {
+        public String category;
+        public List<Recommendation> recommendations;
+        public String error;
+    }
+
+    public static class SummaryEvent {
+        public List<Recommendation> recommendations;
+        public boolean stale;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class ErrorEvent {
+        public int status;
+        public String error;
+        public Long retryAfterSeconds;
+    }
+}
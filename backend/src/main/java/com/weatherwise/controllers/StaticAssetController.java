@@ -0,0 +1,46 @@
+package com.weatherwise.controllers;
+
+import com.weatherwise.services.StaticAssets;
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+public class StaticAssetController {
+
+    private final StaticAssets assets;
+
+    public StaticAssetController(StaticAssets assets) {
+        this.assets = assets;
+    }
+
+    public void registerRoutes(Javalin app) {
+
+        // FRONTEND (/, /index.html, /app.js och /app.<hash>.js osv.)
+        for (String path : assets.paths()) {
+            app.get(path, this::serve);
+        }
+    }
+
+    /**
+     * Skicka en fil ur minnet, förkomprimerad om klienten klarar gzip,
+     * eller 304 om klienten redan har den
+     * @param ctx anropet
+     */
+    private void serve(Context ctx) {
+        StaticAssets.Asset asset = assets.get(ctx.path());
+        String encoding = asset.encodingFor(ctx.header("Accept-Encoding"));
+
+        ctx.header("Vary", "Accept-Encoding");
+        ctx.header("Cache-Control", asset.getCacheControl());
+        ctx.header("ETag", asset.getEtag(encoding));
+
+        if (asset.matches(ctx.header("If-None-Match"))) {
+            ctx.status(304);
+            return;
+        }
+
+        if (encoding != null) {
+            ctx.header("Content-Encoding", encoding);
+        }
+        ctx.contentType(asset.getContentType()).result(asset.getBody(encoding));
+    }
+}
@@ -0,0 +1,102 @@
+package com.weatherwise.models;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Anledningar till en rekommendations poäng. En rekommendation bär en bitmask
+ * av anledningar, och texten byggs först när svaret skrivs ut. Ordningen här
+ * är samma ordning som reglerna körs i, så texten blir densamma som förut.
+ */
+public enum Reason {
+    COLD_STAY_INDOORS("cold_stay_indoors", "Staying indoors may be more comfortable"),
+    COLD_OUTSIDE("cold_outside", "It's quite cold outside"),
+    WARM_OUTDOORS("warm_outdoors", "Enjoy the warm weather outdoors"),
+    NICE_DAY_OUTSIDE("nice_day_outside", "It's a nice day outside"),
+    MILD_WEATHER("mild_weather", "Weather is nice for most activities"),
+    PRECIPITATION_INDOORS("precipitation_indoors", "Indoors is more preferable in with conditions like this"),
+    PRECIPITATION_OUTDOORS("precipitation_outdoors", "Outdoor activities may be less enjoyable in this weather"),
+    STRONG_WIND("strong_wind", "You must exceed minimum weight requirements for strong wind conditions"),
+    HIGH_HUMIDITY("high_humidity", "High humidity makes indoor activities more comfortable"),
+    COLD_CAFE("cold_cafe", "A warm cafe is perfect for cold weather"),
+    PARK_WEATHER("park_weather", "Great weather for enjoying the outdoors in the park"),
+    STORES_OPEN("stores_open", "Stores are open for shopping"),
+    FIKA_TIME("fika_time", "Good time for a fika"),
+    MEAL_TIME("meal_time", "Ideal time for a warm meal");
+
+    // text när ingen regel har gett någon anledning
+    public static final String DEFAULT_TEXT = "Weather is suitable for this activity";
+
+    private static final Reason[] VALUES = values();
+
+    // färdiga texter och kodlistor per bitmask, fylls i första gången de behövs
+    private static final AtomicReferenceArray<String> TEXTS = new AtomicReferenceArray<>(1 << VALUES.length);
+    private static final AtomicReferenceArray<List<String>> CODES = new AtomicReferenceArray<>(1 << VALUES.length);
+
+    private final String code;
+    private final String text;
+
+    Reason(String code, String text) {
+        this.code = code;
+        this.text = text;
+    }
+
+    public String getCode() { return code; }
+    public String getText() { return text; }
+
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Texten för en bitmask, anledningarna i regelordning åtskilda med ". "
+     * @param mask bitmask av anledningar
+     * @return texten
+     */
+    public static String render(int mask) {
+        String text = TEXTS.get(mask);
+        if (text == null) {
+            text = buildText(mask);
+            TEXTS.set(mask, text);
+        }
+        return text;
+    }
+
+    /**
+     * Koderna för en bitmask, för klienter som översätter själva
+     * @param mask bitmask av anledningar
+     * @return koderna i regelordning
+     */
+    public static List<String> codes(int mask) {
+        List<String> codes = CODES.get(mask);
+        if (codes == null) {
+            List<String> built = new ArrayList<>();
+            for (Reason reason : VALUES) {
+                if ((mask & reason.bit()) != 0) {
+                    built.add(reason.code);
+                }
+            }
+            codes = List.copyOf(built);
+            CODES.set(mask, codes);
+        }
+        return codes;
+    }
+
+    private static String buildText(int mask) {
+        if (mask == 0) {
+            return DEFAULT_TEXT;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (Reason reason : VALUES) {
+            if ((mask & reason.bit()) != 0) {
+                if (text.length() > 0) {
+                    text.append(". ");
+                }
+                text.append(reason.text);
+            }
+        }
+        return text.toString();
+    }
+}
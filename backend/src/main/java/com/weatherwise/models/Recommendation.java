@@ -1,10 +1,19 @@
 package com.weatherwise.models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
 public class Recommendation {
 
     private Activity activity;
     private int score;
+
+    // anledningarna som bitmask, se Reason. reason sätts bara om texten angetts direkt
+    private int reasonMask;
     private String reason;
+    private boolean reasonCodesOnly;
 
     private Integer totalActivities;
     private Integer indoorCount;
@@ -20,15 +29,47 @@ public class Recommendation {
         this.reason = reason;
     }
 
+    public Recommendation(Activity activity, int score, int reasonMask) {
+        this.activity = activity;
+        this.score = score;
+        this.reasonMask = reasonMask;
+    }
+
     public Activity getActivity() { return activity; }
     public void setActivity(Activity activity) { this.activity = activity; }
 
     public int getScore() { return score; }
     public void setScore(int score) { this.score = score; }
 
-    public String getReason() { return reason; }
+    /**
+     * Anledningarna som text. Texten byggs från bitmasken och delas mellan
+     * alla rekommendationer med samma anledningar.
+     * @return texten, eller null om klienten bara vill ha koderna
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public String getReason() {
+        if (reasonCodesOnly) return null;
+        return (reason != null) ? reason : Reason.render(reasonMask);
+    }
     public void setReason(String reason) { this.reason = reason; }
 
+    /**
+     * Anledningarna som koder, t.ex. "fika_time", för klienter som översätter själva
+     * @return koderna, eller null om klienten vill ha texten
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public List<String> getReasonCodes() {
+        return reasonCodesOnly ? Reason.codes(reasonMask) : null;
+    }
+
+    @JsonIgnore
+    public int getReasonMask() { return reasonMask; }
+
+    /**
+     * Skriv ut anledningarna som koder i stället för text
+     */
+    public void useReasonCodes() { this.reasonCodesOnly = true; }
+
     public void setInsights(int total, int indoor, int outdoor) {
         this.totalActivities = total;
         this.indoorCount = indoor;
@@ -1,5 +1,7 @@
 package com.weatherwise.models;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 public class Weather {
     private String city;
     private double temperature;
@@ -7,6 +9,7 @@ public class Weather {
     private String description;
     private int humidity;
     private double windSpeed;
+    private boolean stale;
     
     public Weather() {}
     
@@ -42,4 +45,30 @@ public class Weather {
     
     public double getWindSpeed() { return windSpeed; }
     public void setWindSpeed(double windSpeed) { this.windSpeed = windSpeed; }
+
+    // true om vädret är det senast kända och inte har kunnat hämtas om än
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    public boolean isStale() { return stale; }
+    public void setStale(boolean stale) { this.stale = stale; }
+
+    /**
+     * En kopia markerad som gammal, så att det cachade objektet inte ändras
+     * @return kopia med stale satt
+     */
+    public Weather asStale() {
+        Weather copy = new Weather(city, temperature, condition, description, humidity, windSpeed);
+        copy.stale = true;
+        return copy;
+    }
+
+    /**
+     * En kopia med ett annat stadsnamn, t.ex. stadens namn för väder som hämtats per position
+     * @param city namnet att visa
+     * @return kopia med samma väder
+     */
+    public Weather withCity(String city) {
+        Weather copy = new Weather(city, temperature, condition, description, humidity, windSpeed);
+        copy.stale = stale;
+        return copy;
+    }
 }
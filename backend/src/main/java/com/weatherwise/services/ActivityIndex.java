@@ -0,0 +1,311 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rumsligt index i minnet över kända aktiviteter, uppdelat i ett rutnät per kategori.
+ * Varje ruta vet när vi senast fick ett fullständigt svar från Nominatim för
+ * området, så att en sökning kan besvaras lokalt när alla rutor den berör är
+ * täckta. Täckningen går ut efter samma tid som sparade sökningar förnyas, och
+ * varje kategori har ett tak för antal rutor.
+ */
+public class ActivityIndex {
+
+    public static final int DEFAULT_MAX_CELLS_PER_CATEGORY = 20000;
+
+    // 0.01 grader ≈ 1.1 km i nord-sydlig riktning
+    private static final double CELL_SIZE_DEGREES = 0.01;
+    private static final double KM_PER_DEGREE = 111.0;
+    private static final double EPSILON = 1e-9;
+
+    private final Map<String, Grid> grids = new ConcurrentHashMap<>();
+    private final long coverageTtlMillis;
+    private final int maxCellsPerCategory;
+
+    public ActivityIndex() {
+        this(ActivityStore.DEFAULT_REFRESH_AFTER_SECONDS * 1000, DEFAULT_MAX_CELLS_PER_CATEGORY);
+    }
+
+    /**
+     * ActivityIndex-konstruktor
+     * @param coverageTtlMillis hur länge ett täckt område besvaras lokalt innan API:t frågas igen
+     * @param maxCellsPerCategory max antal rutor per kategori innan de äldsta kastas ut
+     */
+    public ActivityIndex(long coverageTtlMillis, int maxCellsPerCategory) {
+        this.coverageTtlMillis = coverageTtlMillis;
+        this.maxCellsPerCategory = maxCellsPerCategory;
+    }
+
+    /**
+     * Lägg till aktiviteter utan att markera något område som täckt
+     * @param category kategori
+     * @param activities aktiviteter
+     */
+    public void add(String category, List<Activity> activities) {
+        Grid grid = grid(category);
+        for (Activity activity : activities) {
+            grid.add(activity);
+        }
+        grid.trim(maxCellsPerCategory, coverageTtlMillis);
+    }
+
+    /**
+     * Lägg in resultatet av en sökning i ett område. Ett fullständigt svar
+     * ersätter rutorna som ligger helt inom området och markerar dem som täckta.
+     * Ett svar som kapats vid sökningens maxantal säger inget om vad som saknas,
+     * så då läggs bara de hittade aktiviteterna till.
+     * @param category kategori
+     * @param activities aktiviteter från sökningen
+     * @param minLat södra gränsen
+     * @param minLon västra gränsen
+     * @param maxLat norra gränsen
+     * @param maxLon östra gränsen
+     * @param fetchedAt när svaret hämtades från API:t, i millisekunder
+     * @param complete true om API:t gav färre träffar än sökningens maxantal
+     */
+    public void putSearch(String category, List<Activity> activities,
+                          double minLat, double minLon, double maxLat, double maxLon,
+                          long fetchedAt, boolean complete) {
+        if (!complete) {
+            add(category, activities);
+            return;
+        }
+        Grid grid = grid(category);
+
+        // aktiviteterna per ruta, rutor utan aktiviteter blir tomma men täckta
+        Map<Long, List<Activity>> found = new HashMap<>();
+        for (Activity activity : activities) {
+            found.computeIfAbsent(key(cell(activity.getLatitude()), cell(activity.getLongitude())),
+                    k -> new ArrayList<>()).add(activity);
+        }
+
+        // bara rutor som ligger helt inom sökområdet räknas som täckta
+        int fromLat = (int) Math.ceil(minLat / CELL_SIZE_DEGREES - EPSILON);
+        int toLat = (int) Math.floor(maxLat / CELL_SIZE_DEGREES + EPSILON) - 1;
+        int fromLon = (int) Math.ceil(minLon / CELL_SIZE_DEGREES - EPSILON);
+        int toLon = (int) Math.floor(maxLon / CELL_SIZE_DEGREES + EPSILON) - 1;
+        for (int la = fromLat; la <= toLat; la++) {
+            for (int lo = fromLon; lo <= toLon; lo++) {
+                long key = key(la, lo);
+                List<Activity> cellActivities = found.remove(key);
+                grid.replace(key, cellActivities != null ? List.copyOf(cellActivities) : List.of(), fetchedAt);
+            }
+        }
+
+        // aktiviteter precis på en yttre gräns hamnar i rutor utanför området
+        for (List<Activity> outside : found.values()) {
+            for (Activity activity : outside) {
+                grid.add(activity);
+            }
+        }
+        grid.trim(maxCellsPerCategory, coverageTtlMillis);
+    }
+
+    /**
+     * Sök aktiviteter inom en radie, sorterade efter avstånd
+     * @param category kategori
+     * @param lat latitud för mittpunkten
+     * @param lon longitud för mittpunkten
+     * @param radiusKm radie i km
+     * @param limit max antal aktiviteter
+     * @return aktiviteterna, eller null om området inte är helt täckt av tidigare sökningar
+     */
+    public List<Activity> findNearby(String category, double lat, double lon, double radiusKm, int limit) {
+        double radiusDegrees = radiusKm / KM_PER_DEGREE;
+        return findInBox(category, lat, lon,
+                lat - radiusDegrees, lon - radiusDegrees, lat + radiusDegrees, lon + radiusDegrees,
+                radiusDegrees, limit);
+    }
+
+    /**
+     * Sök aktiviteter inom en rektangel, sorterade efter avstånd till (lat, lon)
+     * @return aktiviteterna, eller null om rektangeln inte är helt täckt av tidigare sökningar
+     */
+    public List<Activity> findInBox(String category, double lat, double lon,
+                                    double minLat, double minLon, double maxLat, double maxLon, int limit) {
+        return findInBox(category, lat, lon, minLat, minLon, maxLat, maxLon, Double.MAX_VALUE, limit);
+    }
+
+    private List<Activity> findInBox(String category, double lat, double lon,
+                                     double minLat, double minLon, double maxLat, double maxLon,
+                                     double maxDistanceDegrees, int limit) {
+        Grid grid = grids.get(normalize(category));
+        if (grid == null) {
+            return null;
+        }
+
+        int fromLat = cell(minLat);
+        int toLat = cell(maxLat);
+        int fromLon = cell(minLon);
+        int toLon = cell(maxLon);
+
+        long coveredSince = System.currentTimeMillis() - coverageTtlMillis;
+        for (int la = fromLat; la <= toLat; la++) {
+            for (int lo = fromLon; lo <= toLon; lo++) {
+                Cell cell = grid.cells.get(key(la, lo));
+                if (cell == null || cell.coveredAt <= coveredSince) {
+                    return null;
+                }
+            }
+        }
+
+        double maxDistanceSquared = maxDistanceDegrees * maxDistanceDegrees;
+        List<Activity> found = new ArrayList<>();
+        for (int la = fromLat; la <= toLat; la++) {
+            for (int lo = fromLon; lo <= toLon; lo++) {
+                Cell cell = grid.cells.get(key(la, lo));
+                if (cell == null) {
+                    continue;
+                }
+                for (Activity activity : cell.activities) {
+                    double aLat = activity.getLatitude();
+                    double aLon = activity.getLongitude();
+                    if (aLat >= minLat && aLat <= maxLat && aLon >= minLon && aLon <= maxLon
+                            && distanceSquared(lat, lon, aLat, aLon) <= maxDistanceSquared) {
+                        found.add(activity);
+                    }
+                }
+            }
+        }
+
+        return nearest(found, lat, lon, limit);
+    }
+
+    /**
+     * De aktiviteter som ligger närmast en punkt
+     * @param activities aktiviteterna, ändras inte
+     * @param lat latitud för punkten
+     * @param lon longitud för punkten
+     * @param limit max antal aktiviteter
+     * @return de närmaste aktiviteterna, sorterade efter avstånd
+     */
+    public static List<Activity> nearest(List<Activity> activities, double lat, double lon, int limit) {
+        List<Activity> sorted = new ArrayList<>(activities);
+        sorted.sort(Comparator.comparingDouble(a -> distanceSquared(lat, lon, a.getLatitude(), a.getLongitude())));
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    /**
+     * Avrunda en sydlig/västlig gräns nedåt till närmaste rutgräns. Sökningar
+     * mot API:t görs med utvidgade gränser så att alla rutor de berör blir täckta.
+     * @param degrees gräns i grader
+     * @return gränsen avrundad till rutnätet
+     */
+    public static double alignDown(double degrees) {
+        return Math.floor(degrees / CELL_SIZE_DEGREES) * CELL_SIZE_DEGREES;
+    }
+
+    /**
+     * Avrunda en nordlig/östlig gräns uppåt till närmaste rutgräns
+     * @param degrees gräns i grader
+     * @return gränsen avrundad till rutnätet
+     */
+    public static double alignUp(double degrees) {
+        return Math.ceil(degrees / CELL_SIZE_DEGREES) * CELL_SIZE_DEGREES;
+    }
+
+    private Grid grid(String category) {
+        return grids.computeIfAbsent(normalize(category), c -> new Grid());
+    }
+
+    private static String normalize(String category) {
+        return category.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static int cell(double degrees) {
+        return (int) Math.floor(degrees / CELL_SIZE_DEGREES);
+    }
+
+    private static long key(int latCell, int lonCell) {
+        return ((long) latCell << 32) | (lonCell & 0xffffffffL);
+    }
+
+    private static double distanceSquared(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = lat2 - lat1;
+        double dLon = (lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return dLat * dLat + dLon * dLon;
+    }
+
+    /**
+     * En ruta i rutnätet. Rutor ersätts i stället för att ändras, så läsare
+     * behöver aldrig låsa.
+     */
+    private static class Cell {
+        final List<Activity> activities;
+        // när rutan senast täcktes av ett fullständigt svar, 0 om den aldrig har täckts
+        final long coveredAt;
+
+        Cell(List<Activity> activities, long coveredAt) {
+            this.activities = activities;
+            this.coveredAt = coveredAt;
+        }
+    }
+
+    /**
+     * Rutnätet för en kategori
+     */
+    private static class Grid {
+        final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+
+        void add(Activity activity) {
+            long key = key(cell(activity.getLatitude()), cell(activity.getLongitude()));
+            cells.compute(key, (k, existing) -> {
+                if (existing == null) {
+                    return new Cell(List.of(activity), 0);
+                }
+                for (Activity a : existing.activities) {
+                    if (a.getId() == activity.getId()) {
+                        return existing;
+                    }
+                }
+                List<Activity> updated = new ArrayList<>(existing.activities.size() + 1);
+                updated.addAll(existing.activities);
+                updated.add(activity);
+                return new Cell(updated, existing.coveredAt);
+            });
+        }
+
+        void replace(long key, List<Activity> activities, long coveredAt) {
+            // ett äldre svar, t.ex. från lagringen, får inte skriva över ett nyare
+            cells.compute(key, (k, existing) -> (existing != null && existing.coveredAt > coveredAt)
+                    ? existing
+                    : new Cell(activities, coveredAt));
+        }
+
+        /**
+         * Kasta först ut rutor vars täckning har gått ut, och om det inte räcker
+         * de rutor som täcktes längst tillbaka, tills vi ligger på 90 % av taket
+         * @param maxCells tak för antal rutor
+         * @param coverageTtlMillis hur länge en täckning gäller
+         */
+        void trim(int maxCells, long coverageTtlMillis) {
+            if (cells.size() <= maxCells) {
+                return;
+            }
+            synchronized (this) {
+                if (cells.size() <= maxCells) {
+                    return;
+                }
+                long coveredSince = System.currentTimeMillis() - coverageTtlMillis;
+                cells.values().removeIf(cell -> cell.coveredAt <= coveredSince);
+
+                int target = maxCells * 9 / 10;
+                if (cells.size() > target) {
+                    List<Map.Entry<Long, Cell>> oldest = new ArrayList<>(cells.entrySet());
+                    oldest.sort(Comparator.comparingLong(e -> e.getValue().coveredAt));
+                    for (int i = 0; i < oldest.size() && cells.size() > target; i++) {
+                        cells.remove(oldest.get(i).getKey(), oldest.get(i).getValue());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent lagring av parsade aktiviteter i SQLite, per sökning
+ * (stad + kategori eller koordinatruta + kategori). Varje sökning sparas med
+ * en tidsstämpel så att LocationService kan avgöra när den behöver förnyas.
+ *
+ * Databasen anropas aldrig på anroparens tråd. Läsningar körs i en egen
+ * trådpool där varje tråd har en egen anslutning, så att de går parallellt
+ * (WAL tillåter läsare samtidigt som en skrivare). Skrivningar och rensning
+ * av gamla sökningar körs i tur och ordning på en skrivtråd.
+ */
+public class ActivityStore {
+
+    public static final long DEFAULT_REFRESH_AFTER_SECONDS = 24 * 60 * 60;
+    public static final long DEFAULT_MAX_AGE_SECONDS = 30L * 24 * 60 * 60;
+    public static final int DEFAULT_READ_THREADS = 4;
+
+    private static final long PURGE_INTERVAL_MINUTES = 60;
+
+    private final String url;
+    private final Connection writeConnection;
+    private final ThreadLocal<Connection> readConnection;
+    private final ExecutorService readers;
+    private final ScheduledExecutorService writer;
+    private final long refreshAfterMillis;
+    private final long maxAgeMillis;
+
+    /**
+     * ActivityStore-konstruktor, skapar databasen och tabellerna om de saknas
+     * @param file sökväg till databasfilen
+     * @param refreshAfterSeconds hur gammal en sökning får bli innan den förnyas i bakgrunden
+     */
+    public ActivityStore(Path file, long refreshAfterSeconds) {
+        this(file, refreshAfterSeconds, DEFAULT_MAX_AGE_SECONDS, DEFAULT_READ_THREADS);
+    }
+
+    /**
+     * ActivityStore-konstruktor, skapar databasen och tabellerna om de saknas
+     * @param file sökväg till databasfilen
+     * @param refreshAfterSeconds hur gammal en sökning får bli innan den förnyas i bakgrunden
+     * @param maxAgeSeconds sökningar som inte har förnyats på så här länge tas bort, 0 för att spara allt
+     * @param readThreads antal samtidiga läsningar, var och en med egen anslutning
+     */
+    public ActivityStore(Path file, long refreshAfterSeconds, long maxAgeSeconds, int readThreads) {
+        this.refreshAfterMillis = refreshAfterSeconds * 1000;
+        this.maxAgeMillis = maxAgeSeconds * 1000;
+        this.url = "jdbc:sqlite:" + file;
+
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            writeConnection = DriverManager.getConnection(url);
+
+            try (Statement st = writeConnection.createStatement()) {
+                st.execute("PRAGMA journal_mode=WAL");
+                st.execute("CREATE TABLE IF NOT EXISTS activity_queries (" +
+                        "query_key TEXT PRIMARY KEY, " +
+                        "fetched_at INTEGER NOT NULL)");
+                st.execute("CREATE TABLE IF NOT EXISTS activities (" +
+                        "query_key TEXT NOT NULL, " +
+                        "position INTEGER NOT NULL, " +
+                        "id INTEGER NOT NULL, " +
+                        "name TEXT, " +
+                        "category TEXT, " +
+                        "latitude REAL NOT NULL, " +
+                        "longitude REAL NOT NULL, " +
+                        "indoor INTEGER NOT NULL, " +
+                        "PRIMARY KEY (query_key, position))");
+                st.execute("CREATE INDEX IF NOT EXISTS activity_queries_fetched_at " +
+                        "ON activity_queries (fetched_at)");
+            }
+        } catch (Exception e) {
+            throw new RuntimeException("Could not open activity store " + file.toAbsolutePath() + ": " + e.getMessage(), e);
+        }
+
+        readConnection = ThreadLocal.withInitial(this::openReadConnection);
+        readers = Executors.newFixedThreadPool(Math.max(1, readThreads), daemonThreads("activity-store-read"));
+        writer = Executors.newSingleThreadScheduledExecutor(daemonThreads("activity-store-write"));
+
+        if (maxAgeMillis > 0) {
+            writer.scheduleWithFixedDelay(this::purge, 0, PURGE_INTERVAL_MINUTES, TimeUnit.MINUTES);
+        }
+
+        System.out.println("Storing activities in: " + file.toAbsolutePath());
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    /**
+     * Egen anslutning för en lästråd. Anslutningar i SQLite får inte delas
+     * mellan trådar som läser samtidigt. Läsningarna görs i en transaktion, så
+     * att tidsstämpeln och aktiviteterna kommer från samma sparade sökning.
+     */
+    private Connection openReadConnection() {
+        try {
+            Connection connection = DriverManager.getConnection(url);
+            connection.setAutoCommit(false);
+            return connection;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not open activity store for reading: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return hur gammal en sökning får bli innan den förnyas, i millisekunder
+     */
+    public long getRefreshAfterMillis() {
+        return refreshAfterMillis;
+    }
+
+    /**
+     * Hämta en sparad sökning på en av lästrådarna
+     * @param key söknyckel
+     * @return future med sparade aktiviteter, eller null om sökningen aldrig gjorts eller inte kunde läsas
+     */
+    public CompletableFuture<StoredActivities> findAsync(String key) {
+        return CompletableFuture.supplyAsync(() -> find(readConnection.get(), key), readers)
+                .exceptionally(e -> {
+                    System.out.println("Could not read activities for " + key + ": " + e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Hämta en sparad sökning och vänta på svaret, för bakgrundstrådar som Prefetcher
+     * @param key söknyckel
+     * @return sparade aktiviteter, eller null om sökningen aldrig gjorts eller inte kunde läsas
+     */
+    public StoredActivities find(String key) {
+        return findAsync(key).join();
+    }
+
+    private StoredActivities find(Connection connection, String key) {
+        try (PreparedStatement q = connection.prepareStatement(
+                "SELECT fetched_at FROM activity_queries WHERE query_key = ?")) {
+            q.setString(1, key);
+
+            long fetchedAt;
+            try (ResultSet rs = q.executeQuery()) {
+                if (!rs.next()) {
+                    return null;
+                }
+                fetchedAt = rs.getLong(1);
+            }
+
+            List<Activity> activities = new ArrayList<>();
+            try (PreparedStatement a = connection.prepareStatement(
+                    "SELECT id, name, category, latitude, longitude, indoor FROM activities " +
+                    "WHERE query_key = ? ORDER BY position")) {
+                a.setString(1, key);
+                try (ResultSet rs = a.executeQuery()) {
+                    while (rs.next()) {
+                        activities.add(new Activity(
+                                rs.getInt(1),
+                                rs.getString(2),
+                                rs.getString(3),
+                                rs.getDouble(4),
+                                rs.getDouble(5),
+                                rs.getInt(6) != 0));
+                    }
+                }
+            }
+
+            return new StoredActivities(activities, fetchedAt);
+        } catch (SQLException e) {
+            System.out.println("Could not read activities for " + key + ": " + e.getMessage());
+            return null;
+        } finally {
+            try {
+                // avsluta lästransaktionen så att WAL-filen kan checkpointas
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // inget skrevs, det finns inget att ångra
+            }
+        }
+    }
+
+    /**
+     * Spara (eller ersätt) resultatet av en sökning på skrivtråden
+     * @param key söknyckel
+     * @param activities aktiviteter från API:t
+     * @return future som blir klar när sökningen är sparad, eller när det misslyckades
+     */
+    public CompletableFuture<Void> saveAsync(String key, List<Activity> activities) {
+        List<Activity> copy = new ArrayList<>(activities);
+        return CompletableFuture.runAsync(() -> save(key, copy), writer);
+    }
+
+    private void save(String key, List<Activity> activities) {
+        Connection connection = writeConnection;
+        try {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM activities WHERE query_key = ?")) {
+                delete.setString(1, key);
+                delete.executeUpdate();
+            }
+
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO activities (query_key, position, id, name, category, latitude, longitude, indoor) " +
+                    "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < activities.size(); i++) {
+                    Activity activity = activities.get(i);
+                    insert.setString(1, key);
+                    insert.setInt(2, i);
+                    insert.setInt(3, activity.getId());
+                    insert.setString(4, activity.getName());
+                    insert.setString(5, activity.getCategory());
+                    insert.setDouble(6, activity.getLatitude());
+                    insert.setDouble(7, activity.getLongitude());
+                    insert.setInt(8, activity.isIndoor() ? 1 : 0);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            try (PreparedStatement upsert = connection.prepareStatement(
+                    "INSERT INTO activity_queries (query_key, fetched_at) VALUES (?, ?) " +
+                    "ON CONFLICT(query_key) DO UPDATE SET fetched_at = excluded.fetched_at")) {
+                upsert.setString(1, key);
+                upsert.setLong(2, System.currentTimeMillis());
+                upsert.executeUpdate();
+            }
+
+            connection.commit();
+        } catch (SQLException e) {
+            System.out.println("Could not save activities for " + key + ": " + e.getMessage());
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // anslutningen är redan trasig, inget mer att göra
+            }
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+                // se ovan
+            }
+        }
+    }
+
+    /**
+     * Ta bort sökningar som inte har förnyats på maxAgeSeconds, så att databasen
+     * inte växer med varje stad och ruta som någon gång har sökts. Körs på skrivtråden.
+     */
+    private void purge() {
+        long cutoff = System.currentTimeMillis() - maxAgeMillis;
+        Connection connection = writeConnection;
+        try {
+            connection.setAutoCommit(false);
+
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM activities WHERE query_key IN " +
+                    "(SELECT query_key FROM activity_queries WHERE fetched_at < ?)")) {
+                delete.setLong(1, cutoff);
+                delete.executeUpdate();
+            }
+
+            int purged;
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM activity_queries WHERE fetched_at < ?")) {
+                delete.setLong(1, cutoff);
+                purged = delete.executeUpdate();
+            }
+
+            connection.commit();
+            if (purged > 0) {
+                System.out.println("Purged " + purged + " stored activity searches older than "
+                        + TimeUnit.MILLISECONDS.toDays(maxAgeMillis) + " days");
+            }
+        } catch (SQLException e) {
+            System.out.println("Could not purge old activities: " + e.getMessage());
+            try {
+                connection.rollback();
+            } catch (SQLException ignored) {
+                // anslutningen är redan trasig, inget mer att göra
+            }
+        } finally {
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException ignored) {
+                // se ovan
+            }
+        }
+    }
+
+    /**
+     * Resultatet av en sparad sökning
+     */
+    public class StoredActivities {
+        private final List<Activity> activities;
+        private final long fetchedAt;
+
+        StoredActivities(List<Activity> activities, long fetchedAt) {
+            this.activities = activities;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public List<Activity> getActivities() { return activities; }
+        public long getFetchedAt() { return fetchedAt; }
+
+        /**
+         * @return true om sökningen är äldre än förnyelseintervallet
+         */
+        public boolean needsRefresh() {
+            return System.currentTimeMillis() - fetchedAt >= refreshAfterMillis;
+        }
+
+        /**
+         * @param aheadMillis marginal före förnyelseintervallet
+         * @return true om sökningen behöver förnyas inom marginalen
+         */
+        public boolean needsRefreshWithin(long aheadMillis) {
+            return System.currentTimeMillis() - fetchedAt >= refreshAfterMillis - aheadMillis;
+        }
+    }
+}
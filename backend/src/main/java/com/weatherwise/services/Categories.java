@@ -0,0 +1,48 @@
+package com.weatherwise.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Normalisering av kategorier från anropen, så att " Museum", "museum" och
+ * dubbletter blir samma kategori och samma sökning, precis som söknycklarna
+ * i LocationService.
+ */
+public final class Categories {
+
+    private Categories() {}
+
+    /**
+     * Kategorierna utan extra mellanslag, i gemener, utan tomma och utan dubbletter
+     * @param categories kategorier som klienten skickade dem
+     * @return kategorierna i samma ordning som de först förekom
+     */
+    public static List<String> normalize(Collection<String> categories) {
+        Set<String> normalized = new LinkedHashSet<>();
+        if (categories != null) {
+            for (String category : categories) {
+                if (category == null) {
+                    continue;
+                }
+                String c = category.trim().toLowerCase(Locale.ROOT);
+                if (!c.isEmpty()) {
+                    normalized.add(c);
+                }
+            }
+        }
+        return new ArrayList<>(normalized);
+    }
+
+    /**
+     * Läs en kommaseparerad lista, t.ex. ?categories=museum,park
+     * @param categories parameterns värde, eller null
+     * @return normaliserade kategorier, tom om det inte fanns några
+     */
+    public static List<String> parse(String categories) {
+        return (categories == null) ? new ArrayList<>() : normalize(List.of(categories.split(",")));
+    }
+}
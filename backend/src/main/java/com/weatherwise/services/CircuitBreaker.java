@@ -0,0 +1,168 @@
+package com.weatherwise.services;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker för ett externt API. De senaste anropen räknas i ett glidande
+ * fönster, och när för stor andel har misslyckats eller varit långsamma öppnas
+ * brytaren: då skickas inga anrop alls under en stund, så att vi svarar direkt
+ * i stället för att vänta ut ett API som inte mår bra. Därefter släpps några
+ * provanrop igenom (halvöppen), och lyckas de stängs brytaren igen.
+ */
+public class CircuitBreaker {
+
+    public static final int DEFAULT_FAILURE_RATE_PERCENT = 50;
+    public static final long DEFAULT_SLOW_CALL_MILLIS = 2000;
+    public static final int DEFAULT_SLOW_CALL_RATE_PERCENT = 80;
+    public static final long DEFAULT_OPEN_SECONDS = 30;
+
+    // antal anrop i fönstret, och minsta antal innan andelarna bedöms
+    private static final int WINDOW_SIZE = 20;
+    private static final int MIN_CALLS = 10;
+    private static final int HALF_OPEN_CALLS = 3;
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureRatePercent;
+    private final long slowCallNanos;
+    private final int slowCallRatePercent;
+    private final long openNanos;
+
+    // ringbuffert med utfallet av de senaste anropen, skyddad av this
+    private final boolean[] failedCalls = new boolean[WINDOW_SIZE];
+    private final boolean[] slowCalls = new boolean[WINDOW_SIZE];
+    private int next;
+    private int recorded;
+    private int failures;
+    private int slow;
+
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSucceeded;
+
+    public CircuitBreaker(String name) {
+        this(name, DEFAULT_FAILURE_RATE_PERCENT, DEFAULT_SLOW_CALL_MILLIS, DEFAULT_SLOW_CALL_RATE_PERCENT,
+                DEFAULT_OPEN_SECONDS);
+    }
+
+    /**
+     * CircuitBreaker-konstruktor
+     * @param name API:ts namn, t.ex. openweather
+     * @param failureRatePercent andel misslyckade anrop i procent som öppnar brytaren
+     * @param slowCallMillis anrop som tar minst så här lång tid räknas som långsamma
+     * @param slowCallRatePercent andel långsamma anrop i procent som öppnar brytaren
+     * @param openSeconds hur länge brytaren är öppen innan provanrop släpps igenom
+     */
+    public CircuitBreaker(String name, int failureRatePercent, long slowCallMillis, int slowCallRatePercent,
+                          long openSeconds) {
+        this.name = name;
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(slowCallMillis);
+        this.slowCallRatePercent = slowCallRatePercent;
+        this.openNanos = TimeUnit.SECONDS.toNanos(openSeconds);
+        MetricsRegistry.global().registerCircuitBreaker(name, () -> getState().ordinal());
+    }
+
+    /**
+     * Fråga om ett anrop får skickas. Varje godkänt anrop måste följas av record.
+     * @return false om brytaren är öppen
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            halfOpenPermits = HALF_OPEN_CALLS;
+            halfOpenSucceeded = 0;
+            System.out.println("Circuit breaker for " + name + " is half-open, trying " + HALF_OPEN_CALLS + " calls");
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (halfOpenPermits == 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    /**
+     * Registrera utfallet av ett anrop som tryAcquire godkände
+     * @param failed true om anropet misslyckades (fel, timeout, 5xx)
+     * @param durationNanos hur lång tid anropet tog
+     */
+    public synchronized void record(boolean failed, long durationNanos) {
+        boolean slowCall = durationNanos >= slowCallNanos;
+
+        if (state == State.HALF_OPEN) {
+            if (failed || slowCall) {
+                open();
+            } else if (++halfOpenSucceeded >= HALF_OPEN_CALLS) {
+                close();
+            }
+            return;
+        }
+        if (state == State.OPEN) {
+            // anrop som startade innan brytaren öppnades
+            return;
+        }
+
+        if (recorded == WINDOW_SIZE) {
+            if (failedCalls[next]) failures--;
+            if (slowCalls[next]) slow--;
+        } else {
+            recorded++;
+        }
+        failedCalls[next] = failed;
+        slowCalls[next] = slowCall;
+        if (failed) failures++;
+        if (slowCall) slow++;
+        next = (next + 1) % WINDOW_SIZE;
+
+        if (recorded >= MIN_CALLS
+                && (failures * 100 >= failureRatePercent * recorded || slow * 100 >= slowCallRatePercent * recorded)) {
+            open();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Hur länge till brytaren är öppen
+     * @return sekunder tills provanrop släpps igenom, minst 1
+     */
+    public synchronized long getRetryAfterSeconds() {
+        long remaining = openNanos - (System.nanoTime() - openedAt);
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    private void open() {
+        System.out.println("Circuit breaker for " + name + " opened: " + failures + " failed and " + slow
+                + " slow of the last " + recorded + " calls");
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        resetWindow();
+    }
+
+    private void close() {
+        System.out.println("Circuit breaker for " + name + " closed");
+        state = State.CLOSED;
+        resetWindow();
+    }
+
+    private void resetWindow() {
+        next = 0;
+        recorded = 0;
+        failures = 0;
+        slow = 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,38 @@
+package com.weatherwise.services;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * UpstreamClient som går genom en circuit breaker. Fel, timeouts, 5xx och 429
+ * räknas som misslyckade anrop, 404 och andra svar som lyckade. När brytaren
+ * är öppen kastas UpstreamUnavailableException direkt, utan något anrop.
+ */
+public class CircuitBreakingUpstreamClient implements UpstreamClient {
+
+    private final UpstreamClient delegate;
+    private final CircuitBreaker breaker;
+
+    public CircuitBreakingUpstreamClient(UpstreamClient delegate, CircuitBreaker breaker) {
+        this.delegate = delegate;
+        this.breaker = breaker;
+    }
+
+    @Override
+    public <T> UpstreamResponse<T> get(String url, Map<String, String> headers, Function<InputStream, T> parser) {
+        if (!breaker.tryAcquire()) {
+            throw new UpstreamUnavailableException(breaker.getName(), breaker.getRetryAfterSeconds());
+        }
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            UpstreamResponse<T> response = delegate.get(url, headers, parser);
+            failed = response.getStatus() >= 500 || response.getStatus() == 429;
+            return response;
+        } finally {
+            breaker.record(failed, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.weatherwise.services;
+
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Normalisering av stadsnamn, så att "Göteborg", "goteborg", " GÖTEBORG "
+ * och "Gothenburg" blir samma stad. Nyckeln är namnet utan skiftläge,
+ * diakritiska tecken och extra mellanslag, och vanliga alternativa namn
+ * pekar på samma stad. De största svenska städerna har kända koordinater
+ * och behöver aldrig slås upp.
+ */
+public final class CityNames {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    // nyckel -> stad, både stadens eget namn och alternativa namn
+    private static final Map<String, CityResolver.Place> KNOWN = new HashMap<>();
+
+    static {
+        known("Stockholm", 59.3293, 18.0686, "sthlm");
+        known("Göteborg", 57.7089, 11.9746, "gothenburg", "gbg");
+        known("Malmö", 55.6050, 13.0038, "malmoe");
+        known("Uppsala", 59.8586, 17.6389, "upsala");
+        known("Västerås", 59.6099, 16.5448);
+        known("Örebro", 59.2753, 15.2134);
+        known("Linköping", 58.4108, 15.6214);
+        known("Helsingborg", 56.0465, 12.6945, "hbg");
+        known("Jönköping", 57.7826, 14.1618);
+        known("Norrköping", 58.5877, 16.1924);
+        known("Lund", 55.7047, 13.1910);
+        known("Umeå", 63.8258, 20.2630);
+        known("Gävle", 60.6749, 17.1413);
+        known("Visby", 57.6348, 18.2948);
+        known("Kiruna", 67.8558, 20.2253);
+    }
+
+    private CityNames() {}
+
+    private static void known(String name, double lat, double lon, String... aliases) {
+        CityResolver.Place place = new CityResolver.Place(name, lat, lon);
+        KNOWN.put(strip(name), place);
+        for (String alias : aliases) {
+            KNOWN.put(strip(alias), place);
+        }
+    }
+
+    /**
+     * Nyckel för en stad: gemener, utan diakritiska tecken och med ett mellanslag mellan orden
+     * @param city stads namn som användaren skrev det
+     * @return t.ex. "goteborg" för " Göteborg"
+     */
+    public static String key(String city) {
+        String stripped = strip(city);
+        CityResolver.Place place = KNOWN.get(stripped);
+        // alternativa namn får samma nyckel som staden
+        return place != null ? strip(place.getName()) : stripped;
+    }
+
+    private static String strip(String city) {
+        String trimmed = WHITESPACE.matcher(city.trim()).replaceAll(" ");
+        String stripped = MARKS.matcher(Normalizer.normalize(trimmed, Normalizer.Form.NFD)).replaceAll("");
+        return stripped.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Namnet att fråga API:erna om och visa för användaren
+     * @param city stads namn som användaren skrev det
+     * @return stadens eget namn för kända städer, annars namnet utan extra mellanslag
+     */
+    public static String canonical(String city) {
+        CityResolver.Place place = known(city);
+        return place != null ? place.getName() : WHITESPACE.matcher(city.trim()).replaceAll(" ");
+    }
+
+    /**
+     * En känd stad med koordinater, utan att fråga något API
+     * @param city stads namn eller alternativt namn
+     * @return staden, eller null om den inte är känd
+     */
+    public static CityResolver.Place known(String city) {
+        return KNOWN.get(strip(city));
+    }
+}
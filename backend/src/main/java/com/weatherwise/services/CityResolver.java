@@ -0,0 +1,215 @@
+package com.weatherwise.services;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Slår upp en stad till koordinater en gång och minns svaret, så att väder
+ * och aktiviteter för en stad hämtas och cachas per position. "Göteborg",
+ * "goteborg" och en koordinatsökning mitt i Göteborg delar då samma
+ * cacheposter. Kända städer (CityNames) slås aldrig upp, övriga frågas
+ * Nominatim om via samma schemaläggare som aktivitetssökningarna.
+ */
+public class CityResolver {
+
+    public static final long DEFAULT_CACHE_TTL_SECONDS = 7 * 24 * 3600;
+    public static final int DEFAULT_CACHE_MAX_SIZE = 10000;
+
+    // städer som inte finns frågas om igen efter en timme, ifall det var ett tillfälligt fel hos API:t
+    private static final long NOT_FOUND_TTL_NANOS = TimeUnit.HOURS.toNanos(1);
+    private static final Place NOT_FOUND = new Place("", 0, 0);
+
+    private static final String USER_AGENT = "WeatherWiseTravel/1.0 (student)";
+
+    private final NominatimScheduler scheduler;
+    private final UpstreamClient client;
+    private final String searchUrl;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final TtlCache<Place> cache;
+    private final ConcurrentHashMap<String, CompletableFuture<Place>> inFlight = new ConcurrentHashMap<>();
+    private final LongAdder misses = new LongAdder();
+    private final MetricsRegistry.UpstreamMetrics metrics = MetricsRegistry.global().upstream("nominatim");
+
+    /**
+     * CityResolver-konstruktor
+     * @param scheduler begränsar anropen mot Nominatim, delas med LocationService
+     * @param client transport för anropen
+     * @param baseUrl Nominatims adress
+     * @param cacheTtlSeconds hur länge en uppslagen stad sparas
+     * @param cacheMaxSize max antal städer i cachen
+     */
+    public CityResolver(NominatimScheduler scheduler, UpstreamClient client, String baseUrl,
+                        long cacheTtlSeconds, int cacheMaxSize) {
+        this.scheduler = scheduler;
+        this.client = client;
+        this.searchUrl = baseUrl + "/search";
+        this.cache = new TtlCache<>(cacheTtlSeconds, cacheMaxSize);
+
+        MetricsRegistry.global().registerCache("geocoding", cache::getHitCount, misses::sum);
+    }
+
+    /**
+     * Slå upp en stad utan att blockera den anropande tråden
+     * @param city stads namn som användaren skrev det
+     * @return future med staden, eller null om den inte hittades eller API:t inte svarade
+     */
+    public CompletableFuture<Place> resolveAsync(String city) {
+        Place resolved = getIfResolved(city);
+        if (resolved != null || isNotFound(city)) {
+            return CompletableFuture.completedFuture(resolved);
+        }
+        misses.increment();
+
+        // samtidiga uppslag av samma stad delar på ett anrop
+        String key = CityNames.key(city);
+        CompletableFuture<Place> mine = new CompletableFuture<>();
+        CompletableFuture<Place> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            return existing;
+        }
+
+        String name = CityNames.canonical(city);
+        scheduler.submit(() -> geocode(key, name)).whenComplete((place, error) -> {
+            inFlight.remove(key, mine);
+            mine.complete(error == null ? place : null);
+        });
+        return mine;
+    }
+
+    /**
+     * En redan känd eller uppslagen stad, utan att fråga API:t
+     * @param city stads namn
+     * @return staden, eller null om den inte har slagits upp än eller inte finns
+     */
+    public Place getIfResolved(String city) {
+        Place known = CityNames.known(city);
+        if (known != null) {
+            return known;
+        }
+        Place cached = cache.getIfPresent(CityNames.key(city));
+        return cached == NOT_FOUND ? null : cached;
+    }
+
+    private boolean isNotFound(String city) {
+        return cache.getIfPresent(CityNames.key(city)) == NOT_FOUND;
+    }
+
+    /**
+     * Fråga Nominatim efter orten med det namnet. Bara orter räknas, så att en
+     * gata eller ett café med samma namn inte blir staden. Sökningen gäller hela
+     * världen: vädret fungerar för alla städer, och en utländsk stad får inte
+     * bli en svensk ort med samma namn. De kända städerna i CityNames slås aldrig upp.
+     * @param key stadens nyckel i cachen
+     * @param name stadens namn som användaren skrev det
+     * @return staden med namnet som Nominatim stavar det, eller null om den inte hittades eller anropet misslyckades
+     */
+    private Place geocode(String key, String name) {
+        String url = searchUrl + "?q=" + URLEncoder.encode(name, StandardCharsets.UTF_8)
+                + "&format=json&limit=1&featureType=settlement";
+
+        long start = metrics.started();
+        try {
+            UpstreamResponse<Place> response = client.get(url, Map.of("User-Agent", USER_AGENT), this::readPlace);
+            metrics.finished(start, response.getStatus());
+            if (response.getStatus() != 200) {
+                System.out.println("Geocoding error for " + name + ": " + response.getStatus() + " - " + response.getStatusText());
+                return null;
+            }
+
+            Place found = response.getBody();
+            if (found == null) {
+                System.out.println("City not found: " + name);
+                cache.put(key, NOT_FOUND, NOT_FOUND_TTL_NANOS);
+                return null;
+            }
+            // användarens stavning används bara om svaret saknar namn
+            Place place = found.getName().isEmpty() ? new Place(name, found.getLat(), found.getLon()) : found;
+            cache.put(key, place);
+            return place;
+        } catch (UpstreamUnavailableException e) {
+            // brytaren är öppen, staden söks på namn i stället
+            metrics.rejected(start);
+            return null;
+        } catch (Exception e) {
+            metrics.failed(start);
+            System.out.println("Error geocoding " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Läs namn, lat och lon ur första träffen i Nominatims svar
+     * @param json byteström från API:t
+     * @return orten, med tomt namn om träffen saknade namn, eller null om svaret var tomt
+     */
+    private Place readPlace(InputStream json) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(parser, "Expected a list of places");
+            }
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            double lat = 0;
+            double lon = 0;
+            String name = null;
+            String displayName = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                if (field.equals("lat")) {
+                    lat = parser.getValueAsDouble();
+                } else if (field.equals("lon")) {
+                    lon = parser.getValueAsDouble();
+                } else if (field.equals("name")) {
+                    name = parser.getValueAsString();
+                } else if (field.equals("display_name")) {
+                    displayName = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            // display_name börjar med ortens namn, t.ex. "Luleå, Norrbottens län, Sverige"
+            if ((name == null || name.isBlank()) && displayName != null) {
+                name = displayName.split(",")[0];
+            }
+            return new Place((name == null) ? "" : name.trim(), lat, lon);
+        } catch (IOException e) {
+            metrics.parseFailed();
+            throw new IllegalStateException("Could not parse geocoding response", e);
+        }
+    }
+
+    /**
+     * En stad med sitt namn och sin position
+     */
+    public static class Place {
+        private final String name;
+        private final double lat;
+        private final double lon;
+
+        public Place(String name, double lat, double lon) {
+            this.name = name;
+            this.lat = lat;
+            this.lon = lon;
+        }
+
+        public String getName() { return name; }
+        public double getLat() { return lat; }
+        public double getLon() { return lon; }
+    }
+}
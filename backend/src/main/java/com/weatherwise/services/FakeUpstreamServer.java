@@ -0,0 +1,316 @@
+package com.weatherwise.services;
+
+import io.javalin.Javalin;
+import io.javalin.http.Context;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * En fejkad OpenWeather och Nominatim i samma process, så att appen kan köras
+ * och lasttestas utan nätverk och utan API-nyckel. Svaren har samma form som
+ * de riktiga API:erna och är deterministiska: samma stad ger alltid samma väder
+ * och samma platser. Städer som börjar på "nowhere" finns inte (404).
+ *
+ * Med inspelade svar (Payloads) spelas de upp i stället för de genererade, med
+ * en vald fördelning av svarstider och en andel fel (503). Uppslag av orter
+ * (limit=1) får alltid en genererad ort med egen position, så att varje stad
+ * hamnar i egna cacheposter precis som mot riktiga Nominatim.
+ */
+public class FakeUpstreamServer {
+
+    private static final String[] CONDITIONS = {"Clear", "Clouds", "Rain", "Snow", "Drizzle", "Mist"};
+    private static final int PLACES_PER_SEARCH = 10;
+    private static final byte[] ERROR_BODY =
+            "{\"cod\":503,\"message\":\"simulated upstream error\"}".getBytes(StandardCharsets.UTF_8);
+
+    private final String name;
+    private final LatencyDistribution latency;
+    private final double errorRate;
+    private final Payloads payloads;
+    private final LongAdder weatherRequests = new LongAdder();
+    private final LongAdder searchRequests = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private Javalin app;
+
+    public FakeUpstreamServer() {
+        this(0);
+    }
+
+    /**
+     * FakeUpstreamServer-konstruktor
+     * @param latencyMillis hur länge varje svar fördröjs, utan att hålla någon tråd
+     */
+    public FakeUpstreamServer(long latencyMillis) {
+        this("fake", () -> latencyMillis, 0, null);
+    }
+
+    /**
+     * FakeUpstreamServer-konstruktor
+     * @param name namn i rapporter, t.ex. openweather
+     * @param latency svarstider, fördröjningen håller ingen tråd
+     * @param errorRate andel anrop som får 503, 0 till 1
+     * @param payloads inspelade svar att spela upp, eller null för genererade svar
+     */
+    public FakeUpstreamServer(String name, LatencyDistribution latency, double errorRate, Payloads payloads) {
+        this.name = name;
+        this.latency = latency;
+        this.errorRate = errorRate;
+        this.payloads = payloads;
+    }
+
+    /**
+     * Starta servern
+     * @param port port att lyssna på, 0 för valfri ledig port
+     * @return servern, för kedjade anrop
+     */
+    public FakeUpstreamServer start(int port) {
+        app = Javalin.create(config -> {
+            config.showJavalinBanner = false;
+            // komprimera som de riktiga API:erna när klienten ber om gzip
+            config.compression.gzipOnly();
+        });
+        app.get("/data/2.5/weather", ctx -> respond(ctx, this::weather));
+        app.get("/search", ctx -> respond(ctx, this::search));
+        app.start(port);
+        System.out.println("Fake upstream server started on " + getBaseUrl());
+        return this;
+    }
+
+    public void stop() {
+        if (app != null) {
+            app.stop();
+        }
+    }
+
+    /**
+     * Adress att ge WeatherService och LocationService i stället för de riktiga API:erna
+     * @return t.ex. http://localhost:41234
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + app.port();
+    }
+
+    public String getName() { return name; }
+    public long getWeatherRequests() { return weatherRequests.sum(); }
+    public long getSearchRequests() { return searchRequests.sum(); }
+    public long getRequests() { return weatherRequests.sum() + searchRequests.sum(); }
+    public long getErrors() { return errors.sum(); }
+
+    private void respond(Context ctx, Consumer<Context> handler) {
+        boolean fail = errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+        Consumer<Context> answer = fail ? this::error : handler;
+
+        long delay = Math.max(0, latency.nextMillis());
+        if (delay == 0) {
+            answer.accept(ctx);
+            return;
+        }
+        ctx.future(() -> CompletableFuture.runAsync(() -> answer.accept(ctx),
+                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)));
+    }
+
+    private void error(Context ctx) {
+        errors.increment();
+        ctx.status(503).contentType("application/json").result(ERROR_BODY);
+    }
+
+    private void weather(Context ctx) {
+        weatherRequests.increment();
+        if (payloads != null) {
+            replay(ctx, payloads.weather);
+            return;
+        }
+
+        String city = ctx.queryParam("q");
+        String name;
+        if (city != null) {
+            if (city.trim().toLowerCase(Locale.ROOT).startsWith("nowhere")) {
+                ctx.status(404).json(Map.of("cod", "404", "message", "city not found"));
+                return;
+            }
+            name = city.trim();
+        } else if (ctx.queryParam("lat") != null && ctx.queryParam("lon") != null) {
+            name = "Lat " + ctx.queryParam("lat") + ", Lon " + ctx.queryParam("lon");
+        } else {
+            ctx.status(400).json(Map.of("cod", "400", "message", "Nothing to geocode"));
+            return;
+        }
+
+        int seed = name.toLowerCase(Locale.ROOT).hashCode();
+        String condition = CONDITIONS[Math.floorMod(seed, CONDITIONS.length)];
+
+        Map<String, Object> main = new LinkedHashMap<>();
+        main.put("temp", Math.floorMod(seed >> 4, 35) - 5 + 0.5);
+        main.put("humidity", 30 + Math.floorMod(seed >> 8, 65));
+
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("weather", List.of(Map.of("main", condition, "description", condition.toLowerCase(Locale.ROOT))));
+        body.put("main", main);
+        body.put("wind", Map.of("speed", Math.floorMod(seed >> 12, 15) + 0.3));
+        body.put("name", name);
+        body.put("cod", 200);
+        ctx.json(body);
+    }
+
+    private void search(Context ctx) {
+        searchRequests.increment();
+
+        // q är "stad+kategori" för städer och bara kategorin för ett område
+        String q = ctx.queryParam("q");
+        if (q == null || q.isBlank() || q.trim().toLowerCase(Locale.ROOT).startsWith("nowhere")) {
+            ctx.json(List.of());
+            return;
+        }
+        // limit=1 är uppslag av en ort, inte en aktivitetssökning
+        if ("1".equals(ctx.queryParam("limit"))) {
+            ctx.json(List.of(settlement(q.trim())));
+            return;
+        }
+        if (payloads != null) {
+            replay(ctx, payloads.search);
+            return;
+        }
+
+        String[] words = q.trim().split("[ +]+");
+        String category = words[words.length - 1];
+
+        double minLat = 59.30;
+        double minLon = 18.00;
+        double maxLat = 59.36;
+        double maxLon = 18.12;
+        String viewbox = ctx.queryParam("viewbox");
+        if (viewbox != null) {
+            // viewbox=västra,norra,östra,södra
+            String[] box = viewbox.split(",");
+            minLon = Double.parseDouble(box[0]);
+            maxLat = Double.parseDouble(box[1]);
+            maxLon = Double.parseDouble(box[2]);
+            minLat = Double.parseDouble(box[3]);
+        }
+
+        int seed = q.toLowerCase(Locale.ROOT).hashCode();
+        List<Map<String, Object>> places = new ArrayList<>();
+        for (int i = 0; i < PLACES_PER_SEARCH; i++) {
+            double fractionLat = Math.floorMod(seed * 31 + i * 7919, 1000) / 1000.0;
+            double fractionLon = Math.floorMod(seed * 17 + i * 104729, 1000) / 1000.0;
+
+            Map<String, Object> place = new LinkedHashMap<>();
+            place.put("place_id", Math.floorMod(seed + i * 65537, 1_000_000_000));
+            place.put("licence", "Data © OpenStreetMap contributors, ODbL 1.0. https://osm.org/copyright");
+            place.put("lat", String.format(Locale.ROOT, "%.7f", minLat + (maxLat - minLat) * fractionLat));
+            place.put("lon", String.format(Locale.ROOT, "%.7f", minLon + (maxLon - minLon) * fractionLon));
+            place.put("class", "amenity");
+            place.put("type", category.toLowerCase(Locale.ROOT));
+            place.put("display_name", "Fake " + category + " " + (i + 1) + ", " + q.trim());
+            place.put("importance", 0.3);
+            places.add(place);
+        }
+        ctx.json(places);
+    }
+
+    /**
+     * En ort någonstans i Sverige, samma namn ger alltid samma position
+     * @param query orten som den söktes
+     * @return träffen i Nominatims format
+     */
+    private static Map<String, Object> settlement(String query) {
+        String name = query.substring(0, 1).toUpperCase(Locale.ROOT) + query.substring(1).toLowerCase(Locale.ROOT);
+        int seed = name.toLowerCase(Locale.ROOT).hashCode();
+        double lat = 55.4 + Math.floorMod(seed * 31, 10000) / 10000.0 * 12.4;
+        double lon = 11.5 + Math.floorMod(seed * 17, 10000) / 10000.0 * 12.0;
+
+        Map<String, Object> place = new LinkedHashMap<>();
+        place.put("place_id", Math.floorMod(seed, 1_000_000_000));
+        place.put("licence", "Data © OpenStreetMap contributors, ODbL 1.0. https://osm.org/copyright");
+        place.put("lat", String.format(Locale.ROOT, "%.7f", lat));
+        place.put("lon", String.format(Locale.ROOT, "%.7f", lon));
+        place.put("class", "place");
+        place.put("type", "town");
+        place.put("addresstype", "town");
+        place.put("name", name);
+        place.put("display_name", name + ", Sverige");
+        place.put("importance", 0.5);
+        return place;
+    }
+
+    private void replay(Context ctx, List<byte[]> recorded) {
+        // samma fråga ger alltid samma inspelade svar
+        String query = ctx.queryString() == null ? "" : ctx.queryString();
+        byte[] body = recorded.get(Math.floorMod(query.hashCode(), recorded.size()));
+        ctx.contentType("application/json").result(body);
+    }
+
+    /**
+     * Inspelade svar från OpenWeather och Nominatim att spela upp
+     */
+    public static class Payloads {
+        private final List<byte[]> weather;
+        private final List<byte[]> search;
+
+        /**
+         * Payloads-konstruktor
+         * @param weather svar från OpenWeather
+         * @param search svar från Nominatims aktivitetssökningar
+         */
+        public Payloads(List<byte[]> weather, List<byte[]> search) {
+            this.weather = weather;
+            this.search = search;
+        }
+
+        /**
+         * Läs openweather-*.json och nominatim-*.json
+         * @param directory katalog med svar, eller null för /payloads på classpath
+         * @return svaren, sorterade på filnamn
+         */
+        public static Payloads load(String directory) throws IOException {
+            Path dir;
+            if (directory != null) {
+                dir = Paths.get(directory);
+            } else {
+                URL url = FakeUpstreamServer.class.getResource("/payloads");
+                if (url == null) {
+                    throw new IOException("No /payloads directory on the classpath");
+                }
+                try {
+                    dir = Paths.get(url.toURI());
+                } catch (URISyntaxException e) {
+                    throw new IOException(e);
+                }
+            }
+            return new Payloads(read(dir, "openweather-"), read(dir, "nominatim-"));
+        }
+
+        private static List<byte[]> read(Path dir, String prefix) throws IOException {
+            List<byte[]> payloads = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files.sorted()::iterator) {
+                    String fileName = file.getFileName().toString();
+                    if (fileName.startsWith(prefix) && fileName.endsWith(".json")) {
+                        payloads.add(Files.readAllBytes(file));
+                    }
+                }
+            }
+            if (payloads.isEmpty()) {
+                throw new IOException("No " + prefix + "*.json payloads in " + dir);
+            }
+            return payloads;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.weatherwise.services;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Fördelning av svarstider för de fejkade API:erna. Anges som text:
+ * fixed:100, uniform:50:300 eller lognormal:100:800 (median och p99), allt i ms.
+ * Lognormal ger den långa svans som riktiga API:er brukar ha.
+ */
+public interface LatencyDistribution {
+
+    // z-värdet för 99:e percentilen i en normalfördelning
+    double Z_99 = 2.326;
+
+    /**
+     * Dra nästa svarstid
+     * @return svarstid i millisekunder, minst 0
+     */
+    long nextMillis();
+
+    /**
+     * Tolka en fördelning från text
+     * @param spec t.ex. lognormal:100:800
+     * @return fördelningen
+     */
+    static LatencyDistribution parse(String spec) {
+        String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":");
+        try {
+            switch (parts[0]) {
+                case "fixed": {
+                    long millis = Long.parseLong(parts[1]);
+                    return () -> millis;
+                }
+                case "uniform": {
+                    long min = Long.parseLong(parts[1]);
+                    long max = Long.parseLong(parts[2]);
+                    return () -> ThreadLocalRandom.current().nextLong(min, max + 1);
+                }
+                case "lognormal": {
+                    double mu = Math.log(Double.parseDouble(parts[1]));
+                    double sigma = (Math.log(Double.parseDouble(parts[2])) - mu) / Z_99;
+                    return () -> Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+                }
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid latency distribution: " + spec, e);
+        }
+        throw new IllegalArgumentException("Unknown latency distribution: " + spec
+                + " (use fixed:ms, uniform:min:max or lognormal:median:p99)");
+    }
+}
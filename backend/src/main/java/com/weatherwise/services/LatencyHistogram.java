@@ -0,0 +1,117 @@
+package com.weatherwise.services;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latenshistogram i HDR-stil: logaritmiska hinkar (en per tvåpotens av
+ * mikrosekunder) som var och en delas i 8 linjära delhinkar, alltså ca 12 %
+ * relativ precision över hela intervallet. Registrering är låsfri och
+ * allokerar inget, så den kan ligga direkt i request-flödet.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAGNITUDES = 40; // 2^40 µs ≈ 12 dygn
+    private static final long MAX_MICROS = (1L << MAGNITUDES) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAGNITUDES * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Registrera en mätning
+     * @param nanos latens i nanosekunder
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    /**
+     * Registrera en mätning
+     * @param micros latens i mikrosekunder
+     */
+    public void recordMicros(long micros) {
+        long value = Math.min(Math.max(micros, 0), MAX_MICROS);
+        counts.incrementAndGet(bucketIndex(value));
+        count.increment();
+        sumMicros.add(value);
+        maxMicros.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumMicros() {
+        return sumMicros.sum();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    /**
+     * Antal mätningar som är högst en viss latens (räknat på hinkarnas övre gräns)
+     * @param micros gräns i mikrosekunder
+     * @return antal mätningar i hinkar vars övre gräns är högst micros
+     */
+    public long countAtOrBelow(long micros) {
+        long total = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            if (upperBound(i) > micros) {
+                break;
+            }
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    /**
+     * Uppskatta en percentil
+     * @param percentile t.ex. 99.9
+     * @return latens i mikrosekunder (övre gränsen för hinken percentilen hamnar i, högst max)
+     */
+    public long percentileMicros(double percentile) {
+        long total = getCount();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Största värdet som hamnar i en hink
+     * @param index hinkens index
+     * @return övre gräns i mikrosekunder
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long sub = index % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -1,27 +1,46 @@
 package com.weatherwise.services;
 
 import com.weatherwise.models.Activity;
-import kong.unirest.Unirest;
-import kong.unirest.HttpResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
-
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
  * LocationService som hämtar aktiviteter från OpenStreetMap Nominatim-API:t
  */
 public class LocationService {
 
-    private static final String NOMINATIM_URL = "https://nominatim.openstreetmap.org/search";
+    public static final String DEFAULT_BASE_URL = "https://nominatim.openstreetmap.org";
+    private static final String SEARCH_PATH = "/search";
     private static final String USER_AGENT = "WeatherWiseTravel/1.0 (student)";
     private static final int RESULTS_PER_CATEGORY = 10;
 
+    // områdessökningar fyller indexet och hämtar så många träffar som Nominatim tillåter,
+    // så att även täta områden med fler än RESULTS_PER_CATEGORY träffar blir täckta
+    private static final int AREA_SEARCH_LIMIT = 40;
+
     private static final double SEARCH_RADIUS_KM = 5.0;
 
+    // koordinatsökningar sparas per ruta om 0.01 grader (~1 km)
+    private static final double TILE_SCALE = 100.0;
+
     private static final Map<String, Boolean> ACTIVITY_MAP = Map.ofEntries(
             Map.entry("museum", true),
             Map.entry("theatre", true),
@@ -35,13 +54,87 @@ public class LocationService {
             Map.entry("cafe", true)
     );
 
-    private final ObjectMapper mapper;
+    private final JsonFactory jsonFactory;
+    private final UpstreamClient client;
+    private final String searchUrl;
+    private final NominatimScheduler scheduler;
+    private final ActivityStore store;
+    private final CityResolver resolver;
+    private final ActivityIndex index;
+    private final MetricsRegistry.UpstreamMetrics metrics = MetricsRegistry.global().upstream("nominatim");
+
+    // träffar och missar i lagringen och indexet, för /metrics
+    private final LongAdder storeHits = new LongAdder();
+    private final LongAdder storeMisses = new LongAdder();
+    private final LongAdder indexHits = new LongAdder();
+    private final LongAdder indexMisses = new LongAdder();
+
+    // sökningar som just nu förnyas i bakgrunden
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+
+    // sparade sökningar som har visats fast de borde ha förnyats, tills en ny hämtning lyckas
+    private final Set<String> stale = ConcurrentHashMap.newKeySet();
 
     /**
      * LocationService-konstruktor
      */
     public LocationService() {
-        this.mapper = new ObjectMapper();
+        this(new NominatimScheduler());
+    }
+
+    /**
+     * LocationService-konstruktor med en delad schemaläggare för Nominatim-anrop
+     * @param scheduler begränsar samtidighet och anrop per sekund
+     */
+    public LocationService(NominatimScheduler scheduler) {
+        this(scheduler, null);
+    }
+
+    /**
+     * LocationService-konstruktor som läser aktiviteter från en lokal lagring först
+     * @param scheduler begränsar samtidighet och anrop per sekund
+     * @param store lagring av tidigare sökningar, eller null för att alltid fråga API:t
+     */
+    public LocationService(NominatimScheduler scheduler, ActivityStore store) {
+        this(scheduler, store, new UnirestUpstreamClient(), DEFAULT_BASE_URL);
+    }
+
+    /**
+     * LocationService-konstruktor med egen transport och adress till API:t
+     * @param scheduler begränsar samtidighet och anrop per sekund
+     * @param store lagring av tidigare sökningar, eller null för att alltid fråga API:t
+     * @param client transport för anropen
+     * @param baseUrl Nominatims adress, t.ex. en fejkad server vid tester
+     */
+    public LocationService(NominatimScheduler scheduler, ActivityStore store, UpstreamClient client, String baseUrl) {
+        this(scheduler, store, client, baseUrl, null);
+    }
+
+    /**
+     * LocationService-konstruktor som söker aktiviteter i städer runt stadens position
+     * @param scheduler begränsar samtidighet och anrop per sekund
+     * @param store lagring av tidigare sökningar, eller null för att alltid fråga API:t
+     * @param client transport för anropen
+     * @param baseUrl Nominatims adress, t.ex. en fejkad server vid tester
+     * @param resolver slår upp städer till koordinater, eller null för att söka på namn
+     */
+    public LocationService(NominatimScheduler scheduler, ActivityStore store, UpstreamClient client, String baseUrl,
+                           CityResolver resolver) {
+        this.jsonFactory = new JsonFactory();
+        this.resolver = resolver;
+        this.client = client;
+        this.searchUrl = baseUrl + SEARCH_PATH;
+        this.scheduler = scheduler;
+        this.store = store;
+        // täckta områden i indexet går ut samtidigt som de sparade sökningarna ska förnyas
+        this.index = new ActivityIndex((store != null)
+                ? store.getRefreshAfterMillis()
+                : ActivityStore.DEFAULT_REFRESH_AFTER_SECONDS * 1000, ActivityIndex.DEFAULT_MAX_CELLS_PER_CATEGORY);
+
+        MetricsRegistry.global().registerCache("activity_index", indexHits::sum, indexMisses::sum);
+        if (store != null) {
+            MetricsRegistry.global().registerCache("activity_store", storeHits::sum, storeMisses::sum);
+        }
     }
 
     /**
@@ -50,47 +143,110 @@ public class LocationService {
      * @return Lista med aktiviteter i olika kategorier
      */
     public List<Activity> getActivities(String city, List<String> categories) {
+        return getActivitiesAsync(city, categories).join();
+    }
+
+    /**
+     * hämta aktiviteter i en stad utan att blockera den anropande tråden
+     * @param city stads namn
+     * @param categories kategorier
+     * @return future med aktiviteter i olika kategorier
+     */
+    public CompletableFuture<List<Activity>> getActivitiesAsync(String city, List<String> categories) {
         if (city == null || city.trim().isEmpty()) {
             System.out.println("Error: City name cannot be empty");
-            return new ArrayList<>();
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
-        List<Activity> activities = new ArrayList<>();
-
+        // skicka alla kategorier samtidigt, svaren läggs ihop i samma ordning som kategorierna
+        List<CompletableFuture<List<Activity>>> searches = new ArrayList<>();
         for (String category : categories) {
-            activities.addAll(searchCategory(city, category));
+            searches.add(getCategoryAsync(city, category));
         }
 
-        System.out.println("Found " + activities.size() + " activities in " + city);
-        return activities;
+        return collect(searches).thenApply(activities -> {
+            System.out.println("Found " + activities.size() + " activities in " + city);
+            return activities;
+        });
+    }
+
+    /**
+     * hämta aktiviteter i en stad för en enda kategori
+     * @param city stads namn
+     * @param category kategori
+     * @return future med aktiviteterna, eller null om anropet misslyckades
+     */
+    public CompletableFuture<List<Activity>> getCategoryAsync(String city, String category) {
+        if (resolver == null) {
+            return getCategoryByNameAsync(city, category);
+        }
+
+        // staden slås upp i bakgrunden, tills dess söks den på namn som förut utan att vänta i kö på uppslaget
+        CityResolver.Place place = resolver.getIfResolved(city);
+        if (place == null) {
+            resolver.resolveAsync(city);
+            return getCategoryByNameAsync(city, category);
+        }
+
+        // en uppslagen stad söks som ett område, och delar sökning med koordinatanrop på samma plats.
+        // Misslyckas områdessökningen används namnsökningen, som kan ha sparade svar från innan staden slogs upp
+        return getCategoryByCoordinatesAsync(place.getLat(), place.getLon(), category)
+                .thenCompose(found -> (found != null)
+                        ? CompletableFuture.completedFuture(found)
+                        : getCategoryByNameAsync(city, category));
+    }
+
+    private CompletableFuture<List<Activity>> getCategoryByNameAsync(String city, String category) {
+        return readThrough(cityKey(city, category), () -> searchCategory(city, category),
+                (found, fetchedAt) -> index.add(category, found));
+    }
+
+    /**
+     * Nyckel för en stad och kategori. Sökningar med samma nyckel ger samma svar.
+     * @param city stads namn
+     * @param category kategori
+     * @return söknyckel
+     */
+    public String searchKey(String city, String category) {
+        CityResolver.Place place = resolved(city);
+        if (place != null) {
+            return tileKey(place.getLat(), place.getLon(), category);
+        }
+        return cityKey(city, category);
     }
 
     /**
      * anropar API:t och hämtar aktiviteter i en specifik kategori
      * @param city stads namn
      * @param category kategori
-     * @return Lista med aktiviteter i kategorin
+     * @return Lista med aktiviteter i kategorin, eller null om anropet misslyckades
      */
     private List<Activity> searchCategory(String city, String category) {
 
         String url = buildSearchUrl(city, category);
 
+        long start = metrics.started();
         try {
-            HttpResponse<String> response = Unirest.get(url)
-                    .header("User-Agent", USER_AGENT)
-                    .asString();
+            UpstreamResponse<List<Activity>> response = client.get(url, Map.of("User-Agent", USER_AGENT),
+                    body -> parseActivitiesResponse(body, category));
+            metrics.finished(start, response.getStatus());
 
             if (response.getStatus() != 200) {
                 System.out.println("API Error for " + category + ": " +
                         response.getStatus() + " - " + response.getStatusText());
-                return new ArrayList<>();
+                return null;
             }
 
-            return parseActivitiesResponse(response.getBody(), category);
+            return response.getBody();
+        } catch (UpstreamUnavailableException e) {
+            // brytaren är öppen, kategorin hoppas över precis som vid andra fel
+            metrics.rejected(start);
+            return null;
         } catch (Exception e) {
+            metrics.failed(start);
             System.out.println("Error searching " + category + ": " + e.getMessage());
             e.printStackTrace();
-            return new ArrayList<>();
+            return null;
         }
     }
 
@@ -98,34 +254,89 @@ public class LocationService {
      * Parsa JSON-svaret från API:t
      * @param json JSON-sträng från API:t
      * @param category kategori
-     * @return lista med aktiviteter 
+     * @return lista med aktiviteter, eller null om svaret inte gick att parsa
      */
-    private List<Activity> parseActivitiesResponse(String json, String category) {
-        List<Activity> activities = new ArrayList<>();
-
-        try {
-            JsonNode root = mapper.readTree(json);
-             for (JsonNode place : root) {
-                 String name = place.path("display_name").asText();
-                 double lat = place.path("lat").asDouble();
-                 double lon = place.path("lon").asDouble();
-                 String type = place.path("type").asText();
-                 int id = place.path("place_id").asInt();
-
-                 // inomhus eller utomhusaktivitet
-                 boolean indoor = isIndoor(type);
-
-                 Activity activity = new Activity(id, name, category, lat, lon, indoor);
-                 activities.add(activity);
-             }
+    List<Activity> parseActivitiesResponse(String json, String category) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return readActivities(parser, category);
+        } catch (Exception e) {
+            metrics.parseFailed();
+            System.out.println("Error parsing activities JSON: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
 
+    /**
+     * Parsa JSON-svaret direkt från svarets byteström
+     * @param json byteström från API:t
+     * @param category kategori
+     * @return lista med aktiviteter, eller null om svaret inte gick att parsa
+     */
+    List<Activity> parseActivitiesResponse(InputStream json, String category) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return readActivities(parser, category);
         } catch (Exception e) {
+            metrics.parseFailed();
             System.out.println("Error parsing activities JSON: " + e.getMessage());
             e.printStackTrace();
+            // ett trasigt svar räknas som ett misslyckat anrop, så att det inte sparas som "inga aktiviteter"
+            return null;
         }
+    }
 
-        return activities;
+    /**
+     * Läs ut de fält vi behöver ur varje plats token för token och hoppa över
+     * resten (licence, boundingbox, importance m.m.) utan att bygga något JSON-träd
+     * @param parser parser placerad före rotlistan
+     * @param category kategori
+     * @return lista med aktiviteter
+     */
+    private List<Activity> readActivities(JsonParser parser, String category) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new JsonParseException(parser, "Expected a list of places");
+        }
+
+        List<Activity> activities = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = "";
+            double lat = 0;
+            double lon = 0;
+            String type = "";
+            int id = 0;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "display_name":
+                        name = parser.getValueAsString("");
+                        break;
+                    case "lat":
+                        lat = parser.getValueAsDouble();
+                        break;
+                    case "lon":
+                        lon = parser.getValueAsDouble();
+                        break;
+                    case "type":
+                        type = parser.getValueAsString("");
+                        break;
+                    case "place_id":
+                        id = (int) parser.getValueAsLong();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+
+            // inomhus eller utomhusaktivitet
+            boolean indoor = isIndoor(type);
+
+            activities.add(new Activity(id, name, category, lat, lon, indoor));
+        }
 
+        return activities;
     }
 
     /**
@@ -148,9 +359,9 @@ public class LocationService {
      */
     private String buildSearchUrl(String city, String category) {
         return String.format("%s?q=%s+%s&format=json&limit=%d&countrycodes=se", // begrensa med Countrycode, gav mig Stockholm caffe i Nederland
-                NOMINATIM_URL,
-                city,
-                category,
+                searchUrl,
+                URLEncoder.encode(CityNames.canonical(city), StandardCharsets.UTF_8),
+                URLEncoder.encode(category.trim(), StandardCharsets.UTF_8),
                 RESULTS_PER_CATEGORY);
     }
 
@@ -161,64 +372,338 @@ public class LocationService {
      * @return Lista aktiviteter nära koordinater
      */
     public List<Activity> getActivitiesByCoordinates(double lat, double lon, List<String> categories) {
-        List<Activity> activities = new ArrayList<>();
+        return getActivitiesByCoordinatesAsync(lat, lon, categories).join();
+    }
 
+    /**
+     * Hämta aktiviteter baserat på koordinater utan att blockera den anropande tråden
+     * @param lat latitud
+     * @param lon longitud
+     * @param categories kategorier
+     * @return future med aktiviteter nära koordinaterna
+     */
+    public CompletableFuture<List<Activity>> getActivitiesByCoordinatesAsync(double lat, double lon, List<String> categories) {
         if (categories == null || categories.isEmpty()) {
-            return new ArrayList<>();
+            return CompletableFuture.completedFuture(new ArrayList<>());
         }
 
+        List<CompletableFuture<List<Activity>>> searches = new ArrayList<>();
         for (String category : categories) {
-            activities.addAll(searchCategoryByCoordinates(lat, lon, category));
+            searches.add(getCategoryByCoordinatesAsync(lat, lon, category));
         }
 
-        System.out.println("Found " + activities.size() + " activities near coordinates [" + lat + ", " + lon + "]");
-        return activities;
+        return collect(searches).thenApply(activities -> {
+            System.out.println("Found " + activities.size() + " activities near coordinates [" + lat + ", " + lon + "]");
+            return activities;
+        });
+    }
+
+    /**
+     * Hämta aktiviteter nära koordinater för en enda kategori
+     * @param lat latitud
+     * @param lon longitud
+     * @param category kategori
+     * @return future med aktiviteterna, eller null om anropet misslyckades
+     */
+    public CompletableFuture<List<Activity>> getCategoryByCoordinatesAsync(double lat, double lon, String category) {
+        double radiusDegrees = SEARCH_RADIUS_KM / 111.0;
+        double minLat = lat - radiusDegrees;
+        double maxLat = lat + radiusDegrees;
+        double minLon = lon - radiusDegrees;
+        double maxLon = lon + radiusDegrees;
+
+        // svara direkt ur indexet om hela sökområdet redan är täckt
+        List<Activity> local = index.findInBox(category, lat, lon, minLat, minLon, maxLat, maxLon, RESULTS_PER_CATEGORY);
+        if (local != null) {
+            indexHits.increment();
+            return CompletableFuture.completedFuture(local);
+        }
+        indexMisses.increment();
+
+        // API:t frågas om området utvidgat till hela rutor i indexet
+        double searchMinLat = ActivityIndex.alignDown(minLat);
+        double searchMaxLat = ActivityIndex.alignUp(maxLat);
+        double searchMinLon = ActivityIndex.alignDown(minLon);
+        double searchMaxLon = ActivityIndex.alignUp(maxLon);
+
+        // svaret blir de närmaste aktiviteterna, samma som indexet ger nästa gång
+        return readThrough(tileKey(lat, lon, category),
+                () -> searchCategoryByCoordinates(searchMinLat, searchMinLon, searchMaxLat, searchMaxLon, category),
+                indexSearch(category, searchMinLat, searchMinLon, searchMaxLat, searchMaxLon))
+                .thenApply(found -> (found != null)
+                        ? ActivityIndex.nearest(found, lat, lon, RESULTS_PER_CATEGORY)
+                        : null);
+    }
+
+    /**
+     * Lägg in en områdessökning i indexet när den har lästs från lagringen eller hämtats.
+     * Bara svar med färre träffar än AREA_SEARCH_LIMIT täcker området, annars kan
+     * det finnas fler. Nominatim sorterar på betydelse och inte på avstånd, så ett
+     * avkortat svar säger inget om någon del av området.
+     */
+    private BiConsumer<List<Activity>, Long> indexSearch(String category, double minLat, double minLon,
+                                                         double maxLat, double maxLon) {
+        return (found, fetchedAt) -> index.putSearch(category, found, minLat, minLon, maxLat, maxLon,
+                fetchedAt, found.size() < AREA_SEARCH_LIMIT);
+    }
+
+    /**
+     * Nyckel för en position och kategori. Positioner i samma ruta om 0.01
+     * grader delar nyckel, precis som i lagringen.
+     * @param lat latitud
+     * @param lon longitud
+     * @param category kategori
+     * @return söknyckel
+     */
+    public String searchKey(double lat, double lon, String category) {
+        return tileKey(lat, lon, category);
+    }
+
+    /**
+     * Om något av svaren för en stad är sparade aktiviteter som inte har kunnat förnyas än
+     * @param city stads namn
+     * @param categories kategorier
+     * @return true om minst en kategori är gammal
+     */
+    public boolean isStale(String city, List<String> categories) {
+        CityResolver.Place place = resolved(city);
+        if (place != null) {
+            return isStale(place.getLat(), place.getLon(), categories);
+        }
+        for (String category : categories) {
+            if (stale.contains(cityKey(city, category))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Om något av svaren för en position är sparade aktiviteter som inte har kunnat förnyas än
+     * @param lat latitud
+     * @param lon longitud
+     * @param categories kategorier
+     * @return true om minst en kategori är gammal
+     */
+    public boolean isStale(double lat, double lon, List<String> categories) {
+        for (String category : categories) {
+            if (stale.contains(tileKey(lat, lon, category))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Läs en sökning från lagringen i första hand och fråga API:t bara vid miss.
+     * Gamla sökningar returneras direkt och förnyas i bakgrunden.
+     * @param key söknyckel
+     * @param search anropar API:t, returnerar null om anropet misslyckades
+     * @param loaded får aktiviteterna och när de hämtades, både från lagringen och från API:t
+     * @return future med aktiviteterna, eller null om anropet misslyckades
+     */
+    private CompletableFuture<List<Activity>> readThrough(String key, Supplier<List<Activity>> search,
+                                                          BiConsumer<List<Activity>, Long> loaded) {
+        if (store == null) {
+            return fetch(key, search, loaded);
+        }
+
+        // lagringen läses på sina egna trådar, aldrig på anropets
+        return store.findAsync(key).thenCompose(stored -> {
+            if (stored == null) {
+                storeMisses.increment();
+                return fetch(key, search, loaded);
+            }
+            storeHits.increment();
+            loaded.accept(stored.getActivities(), stored.getFetchedAt());
+            if (stored.needsRefresh()) {
+                stale.add(key);
+                revalidate(key, search, loaded);
+            }
+            return CompletableFuture.completedFuture(stored.getActivities());
+        });
+    }
+
+    private CompletableFuture<List<Activity>> fetch(String key, Supplier<List<Activity>> search,
+                                                    BiConsumer<List<Activity>, Long> loaded) {
+        // full kö eller avbrutet anrop hoppar över kategorin, precis som ett misslyckat anrop
+        return scheduler.submit(() -> fetchAndStore(key, search, loaded)).exceptionally(error -> {
+            System.out.println("Search " + key + " not run: " + error.getMessage());
+            return null;
+        });
+    }
+
+    /**
+     * Förnya en sparad sökning i bakgrunden, högst en gång åt gången per nyckel
+     * @param key söknyckel
+     * @param search anropar API:t
+     * @param loaded får de nya aktiviteterna
+     * @return true om en förnyelse startades, false om en redan pågick
+     */
+    private boolean revalidate(String key, Supplier<List<Activity>> search, BiConsumer<List<Activity>, Long> loaded) {
+        if (!revalidating.add(key)) {
+            return false;
+        }
+
+        scheduler.submit(() -> fetchAndStore(key, search, loaded))
+                .whenComplete((activities, error) -> revalidating.remove(key));
+        return true;
+    }
+
+    /**
+     * Förnya en sparad stadssökning i förväg om den snart blir gammal
+     * @param city stads namn
+     * @param category kategori
+     * @param aheadMillis hur långt innan förnyelseintervallet sökningen förnyas
+     * @return true om ett anrop mot API:t startades
+     */
+    public boolean prefetch(String city, String category, long aheadMillis) {
+        CityResolver.Place place = resolved(city);
+        if (place != null) {
+            return prefetch(place.getLat(), place.getLon(), category, aheadMillis);
+        }
+        return prefetch(cityKey(city, category), () -> searchCategory(city, category),
+                (found, fetchedAt) -> index.add(category, found), aheadMillis);
     }
 
     /**
-     * Sök efter aktiviteter baserat på koordinater och kategori
+     * Förnya en sparad koordinatsökning i förväg om den snart blir gammal
      * @param lat latitud
      * @param lon longitud
      * @param category kategori
-     * @return lista med aktiviteter 
+     * @param aheadMillis hur långt innan förnyelseintervallet sökningen förnyas
+     * @return true om ett anrop mot API:t startades
+     */
+    public boolean prefetch(double lat, double lon, String category, long aheadMillis) {
+        double radiusDegrees = SEARCH_RADIUS_KM / 111.0;
+        double searchMinLat = ActivityIndex.alignDown(lat - radiusDegrees);
+        double searchMaxLat = ActivityIndex.alignUp(lat + radiusDegrees);
+        double searchMinLon = ActivityIndex.alignDown(lon - radiusDegrees);
+        double searchMaxLon = ActivityIndex.alignUp(lon + radiusDegrees);
+
+        return prefetch(tileKey(lat, lon, category),
+                () -> searchCategoryByCoordinates(searchMinLat, searchMinLon, searchMaxLat, searchMaxLon, category),
+                indexSearch(category, searchMinLat, searchMinLon, searchMaxLat, searchMaxLon), aheadMillis);
+    }
+
+    private boolean prefetch(String key, Supplier<List<Activity>> search, BiConsumer<List<Activity>, Long> loaded,
+                             long aheadMillis) {
+        // utan lagring sparas inga sökningar, så det finns inget att hålla varmt
+        if (store == null) {
+            return false;
+        }
+
+        ActivityStore.StoredActivities stored = store.find(key);
+        if (stored != null && !stored.needsRefreshWithin(aheadMillis)) {
+            return false;
+        }
+        return revalidate(key, search, loaded);
+    }
+
+    private List<Activity> fetchAndStore(String key, Supplier<List<Activity>> search,
+                                         BiConsumer<List<Activity>, Long> loaded) {
+        List<Activity> activities = search.get();
+        if (activities == null) {
+            return null;
+        }
+
+        if (store != null) {
+            // svaret väntar inte på skrivningen, indexet har det redan
+            store.saveAsync(key, activities);
+        }
+        // indexet får samma svar, så att förnyade sökningar även ersätter rutorna där
+        loaded.accept(activities, System.currentTimeMillis());
+        stale.remove(key);
+        return activities;
+    }
+
+    private String cityKey(String city, String category) {
+        return "city:" + CityNames.key(city) + ":" + category.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Stadens position om den redan är känd, utan att fråga API:t
+     * @param city stads namn
+     * @return staden, eller null om den söks på namn
+     */
+    private CityResolver.Place resolved(String city) {
+        return (resolver != null) ? resolver.getIfResolved(city) : null;
+    }
+
+    private String tileKey(double lat, double lon, String category) {
+        return "tile:" + Math.round(lat * TILE_SCALE) + ":" + Math.round(lon * TILE_SCALE) + ":" +
+                category.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Slå ihop alla kategorisökningar när den sista är klar
+     * @param searches pågående sökningar, en per kategori
+     * @return future med alla aktiviteter i kategoriernas ordning
+     */
+    private CompletableFuture<List<Activity>> collect(List<CompletableFuture<List<Activity>>> searches) {
+        return CompletableFuture.allOf(searches.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<Activity> activities = new ArrayList<>();
+            for (CompletableFuture<List<Activity>> search : searches) {
+                List<Activity> found = search.join();
+                if (found != null) {
+                    activities.addAll(found);
+                }
+            }
+            return activities;
+        });
+    }
+
+    /**
+     * Sök efter aktiviteter inom ett område och en kategori
+     * @param minLat södra gränsen
+     * @param minLon västra gränsen
+     * @param maxLat norra gränsen
+     * @param maxLon östra gränsen
+     * @param category kategori
+     * @return lista med aktiviteter, eller null om anropet misslyckades
      */
-    private List<Activity> searchCategoryByCoordinates(double lat, double lon, String category) {
-        String url = buildSearchUrlByCoordinates(lat, lon, category);
+    private List<Activity> searchCategoryByCoordinates(double minLat, double minLon, double maxLat, double maxLon,
+                                                       String category) {
+        String url = buildSearchUrlByCoordinates(minLat, minLon, maxLat, maxLon, category);
 
+        long start = metrics.started();
         try {
-            HttpResponse<String> response = Unirest.get(url).header("User-Agent", USER_AGENT).asString();
+            UpstreamResponse<List<Activity>> response = client.get(url, Map.of("User-Agent", USER_AGENT),
+                    body -> parseActivitiesResponse(body, category));
+            metrics.finished(start, response.getStatus());
 
             if (response.getStatus() != 200) {
                 System.out.println("API Error for " + category + ": " +
                         response.getStatus() + " - " + response.getStatusText());
-                return new ArrayList<>();
+                return null;
             }
 
-            return parseActivitiesResponse(response.getBody(), category);
+            return response.getBody();
+        } catch (UpstreamUnavailableException e) {
+            // brytaren är öppen, kategorin hoppas över precis som vid andra fel
+            metrics.rejected(start);
+            return null;
         } catch (Exception e) {
+            metrics.failed(start);
             System.out.println("Error searching " + category + " by coordinates: " + e.getMessage());
             e.printStackTrace();
-            return new ArrayList<>();
+            return null;
         }
     }
 
     /**
-     * Bygg sök-URL baserat på koordinater
-     * @param lat latitud
-     * @param lon longitud
+     * Bygg sök-URL för ett område
+     * @param minLat södra gränsen
+     * @param minLon västra gränsen
+     * @param maxLat norra gränsen
+     * @param maxLon östra gränsen
      * @param category kategori
      * @return URL baserad på koordinater
      */
-    private String buildSearchUrlByCoordinates(double lat, double lon, String category) {
-        double radiusDegrees = SEARCH_RADIUS_KM / 111.0;
-
-        double minLon = lon - radiusDegrees;
-        double maxLon = lon + radiusDegrees;
-        double minLat = lat - radiusDegrees;
-        double maxLat = lat + radiusDegrees;
-
-        return NOMINATIM_URL + "?q=" + category +
-                "&format=json&limit=" + RESULTS_PER_CATEGORY +
+    private String buildSearchUrlByCoordinates(double minLat, double minLon, double maxLat, double maxLon,
+                                               String category) {
+        return searchUrl + "?q=" + URLEncoder.encode(category.trim(), StandardCharsets.UTF_8) +
+                "&format=json&limit=" + AREA_SEARCH_LIMIT +
                 "&viewbox=" + minLon + "," + maxLat + "," + maxLon + "," + minLat +
                 "&bounded=1&countrycodes=se";
     }
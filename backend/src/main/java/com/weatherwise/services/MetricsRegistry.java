@@ -0,0 +1,277 @@
+package com.weatherwise.services;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Mätvärden för servern: latens per route, latens och statuskoder per
+ * externt API, pågående anrop och träffgrad för cacharna. Allt som
+ * registreras i request-flödet är låsfritt och allokerar inget när
+ * mätvärdet väl finns. scrape() skriver ut allt i Prometheus textformat.
+ */
+public class MetricsRegistry {
+
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    // gränser för histogrammens le-hinkar i /metrics, i sekunder
+    private static final double[] BUCKET_BOUNDS_SECONDS = {
+            0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    private final Map<String, Map<String, LatencyHistogram>> routes = new ConcurrentHashMap<>();
+    private final AtomicLong inFlightRequests = new AtomicLong();
+    private final Map<String, UpstreamMetrics> upstreams = new ConcurrentHashMap<>();
+    private final Map<String, CacheStats> caches = new ConcurrentHashMap<>();
+    private final Map<String, IntSupplier> circuitBreakers = new ConcurrentHashMap<>();
+
+    /**
+     * Det gemensamma registret som tjänsterna rapporterar till
+     * @return registret
+     */
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public void requestStarted() {
+        inFlightRequests.incrementAndGet();
+    }
+
+    public void requestFinished() {
+        inFlightRequests.decrementAndGet();
+    }
+
+    /**
+     * Registrera latensen för ett anrop mot en route
+     * @param method HTTP-metod
+     * @param route route-mönstret, t.ex. /api/v1/weather/{city}
+     * @param micros latens i mikrosekunder
+     */
+    public void recordRequest(String method, String route, long micros) {
+        Map<String, LatencyHistogram> byRoute = routes.get(method);
+        if (byRoute == null) {
+            byRoute = routes.computeIfAbsent(method, m -> new ConcurrentHashMap<>());
+        }
+
+        LatencyHistogram histogram = byRoute.get(route);
+        if (histogram == null) {
+            histogram = byRoute.computeIfAbsent(route, r -> new LatencyHistogram());
+        }
+        histogram.recordMicros(micros);
+    }
+
+    /**
+     * Mätvärden för ett externt API. Hämta en gång och spara i ett fält.
+     * @param name API:ts namn, t.ex. openweather
+     * @return mätvärden för API:t
+     */
+    public UpstreamMetrics upstream(String name) {
+        return upstreams.computeIfAbsent(name, n -> new UpstreamMetrics());
+    }
+
+    /**
+     * Registrera en cache så att dess träffgrad syns i /metrics
+     * @param name cachens namn
+     * @param hits antal träffar hittills
+     * @param misses antal missar hittills
+     */
+    public void registerCache(String name, LongSupplier hits, LongSupplier misses) {
+        caches.put(name, new CacheStats(hits, misses));
+    }
+
+    /**
+     * Registrera en circuit breaker så att dess läge syns i /metrics
+     * @param upstream API:ts namn
+     * @param state 0 stängd, 1 öppen, 2 halvöppen
+     */
+    public void registerCircuitBreaker(String upstream, IntSupplier state) {
+        circuitBreakers.put(upstream, state);
+    }
+
+    /**
+     * Skriv ut alla mätvärden i Prometheus textformat
+     * @return mätvärdena
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+
+        out.append("# HELP http_server_requests_seconds Latency per Javalin route\n");
+        out.append("# TYPE http_server_requests_seconds histogram\n");
+        for (Map.Entry<String, Map<String, LatencyHistogram>> method : new TreeMap<>(routes).entrySet()) {
+            for (Map.Entry<String, LatencyHistogram> route : new TreeMap<>(method.getValue()).entrySet()) {
+                String labels = "method=\"" + escape(method.getKey()) + "\",route=\"" + escape(route.getKey()) + "\"";
+                appendHistogram(out, "http_server_requests_seconds", labels, route.getValue());
+            }
+        }
+
+        out.append("# HELP http_server_requests_in_flight Requests currently being handled\n");
+        out.append("# TYPE http_server_requests_in_flight gauge\n");
+        out.append("http_server_requests_in_flight ").append(inFlightRequests.get()).append('\n');
+
+        Map<String, UpstreamMetrics> sortedUpstreams = new TreeMap<>(upstreams);
+
+        out.append("# HELP upstream_request_duration_seconds Latency per upstream API\n");
+        out.append("# TYPE upstream_request_duration_seconds histogram\n");
+        for (Map.Entry<String, UpstreamMetrics> e : sortedUpstreams.entrySet()) {
+            appendHistogram(out, "upstream_request_duration_seconds",
+                    "upstream=\"" + escape(e.getKey()) + "\"", e.getValue().latency);
+        }
+
+        out.append("# HELP upstream_responses_total Upstream responses per status code\n");
+        out.append("# TYPE upstream_responses_total counter\n");
+        for (Map.Entry<String, UpstreamMetrics> e : sortedUpstreams.entrySet()) {
+            AtomicLongArray statuses = e.getValue().statuses;
+            for (int status = 0; status < statuses.length(); status++) {
+                long count = statuses.get(status);
+                if (count > 0) {
+                    out.append("upstream_responses_total{upstream=\"").append(escape(e.getKey()))
+                            .append("\",status=\"").append(status).append("\"} ").append(count).append('\n');
+                }
+            }
+        }
+
+        appendUpstreamCounter(out, sortedUpstreams, "upstream_errors_total",
+                "Upstream calls that failed without a response", "counter", m -> m.errors.sum());
+        appendUpstreamCounter(out, sortedUpstreams, "upstream_parse_failures_total",
+                "Upstream responses that could not be parsed", "counter", m -> m.parseFailures.sum());
+        appendUpstreamCounter(out, sortedUpstreams, "upstream_requests_in_flight",
+                "Upstream calls currently in progress", "gauge", m -> m.inFlight.get());
+        appendUpstreamCounter(out, sortedUpstreams, "upstream_rejected_total",
+                "Upstream calls not sent because the circuit breaker was open", "counter", m -> m.rejected.sum());
+
+        out.append("# HELP upstream_circuit_breaker_state Circuit breaker state (0 closed, 1 open, 2 half-open)\n");
+        out.append("# TYPE upstream_circuit_breaker_state gauge\n");
+        for (Map.Entry<String, IntSupplier> e : new TreeMap<>(circuitBreakers).entrySet()) {
+            out.append("upstream_circuit_breaker_state{upstream=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(e.getValue().getAsInt()).append('\n');
+        }
+
+        Map<String, CacheStats> sortedCaches = new TreeMap<>(caches);
+        out.append("# HELP cache_hits_total Cache hits\n");
+        out.append("# TYPE cache_hits_total counter\n");
+        for (Map.Entry<String, CacheStats> e : sortedCaches.entrySet()) {
+            out.append("cache_hits_total{cache=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(e.getValue().hits.getAsLong()).append('\n');
+        }
+        out.append("# HELP cache_misses_total Cache misses\n");
+        out.append("# TYPE cache_misses_total counter\n");
+        for (Map.Entry<String, CacheStats> e : sortedCaches.entrySet()) {
+            out.append("cache_misses_total{cache=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(e.getValue().misses.getAsLong()).append('\n');
+        }
+        out.append("# HELP cache_hit_ratio Share of lookups served from the cache\n");
+        out.append("# TYPE cache_hit_ratio gauge\n");
+        for (Map.Entry<String, CacheStats> e : sortedCaches.entrySet()) {
+            long hits = e.getValue().hits.getAsLong();
+            long total = hits + e.getValue().misses.getAsLong();
+            out.append("cache_hit_ratio{cache=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(String.format(Locale.ROOT, "%.4f", total == 0 ? 0.0 : (double) hits / total)).append('\n');
+        }
+
+        return out.toString();
+    }
+
+    private void appendHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        for (double bound : BUCKET_BOUNDS_SECONDS) {
+            out.append(name).append("_bucket{").append(labels).append(",le=\"").append(bound).append("\"} ")
+                    .append(histogram.countAtOrBelow((long) (bound * 1_000_000))).append('\n');
+        }
+        long count = histogram.getCount();
+        out.append(name).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(String.format(Locale.ROOT, "%.6f", histogram.getSumMicros() / 1_000_000.0)).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(count).append('\n');
+    }
+
+    private void appendUpstreamCounter(StringBuilder out, Map<String, UpstreamMetrics> upstreams, String name,
+                                       String help, String type, ToLongFunction<UpstreamMetrics> value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Map.Entry<String, UpstreamMetrics> e : upstreams.entrySet()) {
+            out.append(name).append("{upstream=\"").append(escape(e.getKey())).append("\"} ")
+                    .append(value.applyAsLong(e.getValue())).append('\n');
+        }
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Mätvärden för ett externt API
+     */
+    public static class UpstreamMetrics {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final AtomicLongArray statuses = new AtomicLongArray(600);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder parseFailures = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicLong inFlight = new AtomicLong();
+
+        /**
+         * Anropas precis innan ett anrop skickas
+         * @return starttid att skicka med till finished/failed
+         */
+        public long started() {
+            inFlight.incrementAndGet();
+            return System.nanoTime();
+        }
+
+        /**
+         * Anropet fick ett svar
+         * @param startNanos värdet från started()
+         * @param status HTTP-status
+         */
+        public void finished(long startNanos, int status) {
+            inFlight.decrementAndGet();
+            latency.recordNanos(System.nanoTime() - startNanos);
+            if (status >= 0 && status < statuses.length()) {
+                statuses.incrementAndGet(status);
+            }
+        }
+
+        /**
+         * Anropet misslyckades utan svar (timeout, nätverksfel)
+         * @param startNanos värdet från started()
+         */
+        public void failed(long startNanos) {
+            inFlight.decrementAndGet();
+            latency.recordNanos(System.nanoTime() - startNanos);
+            errors.increment();
+        }
+
+        /**
+         * Anropet skickades aldrig eftersom circuit breakern var öppen
+         * @param startNanos värdet från started()
+         */
+        public void rejected(long startNanos) {
+            inFlight.decrementAndGet();
+            rejected.increment();
+        }
+
+        public void parseFailed() {
+            parseFailures.increment();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+    }
+
+    private static class CacheStats {
+        final LongSupplier hits;
+        final LongSupplier misses;
+
+        CacheStats(LongSupplier hits, LongSupplier misses) {
+            this.hits = hits;
+            this.misses = misses;
+        }
+    }
+}
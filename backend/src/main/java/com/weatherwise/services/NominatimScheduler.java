@@ -0,0 +1,113 @@
+package com.weatherwise.services;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Delad schemaläggare för anrop mot Nominatim. Begränsar både hur många anrop
+ * som får pågå samtidigt och hur många som får startas per sekund, så att
+ * kategorierna kan hämtas parallellt utan att vi bryter mot användarvillkoren
+ * (https://operations.osmfoundation.org/policies/nominatim/ tillåter max 1 anrop/s).
+ * Kön är begränsad: när den är full misslyckas nya anrop direkt i stället för
+ * att vänta i minuter bakom alla andra.
+ */
+public class NominatimScheduler {
+
+    public static final double DEFAULT_MAX_REQUESTS_PER_SECOND = 1.0;
+    public static final int DEFAULT_BURST = 1;
+    public static final int DEFAULT_MAX_CONCURRENT = 4;
+    public static final int DEFAULT_MAX_QUEUED = 30;
+
+    private final ExecutorService executor;
+    private final long intervalNanos;
+    private final long burstNanos;
+
+    // teoretisk ankomsttid för nästa anrop (GCRA), skyddas av this
+    private long nextSlot;
+
+    public NominatimScheduler() {
+        this(DEFAULT_MAX_REQUESTS_PER_SECOND, DEFAULT_BURST, DEFAULT_MAX_CONCURRENT);
+    }
+
+    /**
+     * NominatimScheduler-konstruktor med standardstorlek på kön
+     * @param maxRequestsPerSecond hur många anrop som får startas per sekund i snitt
+     * @param burst hur många anrop som får startas direkt efter en lugn period
+     * @param maxConcurrent max antal anrop som pågår samtidigt
+     */
+    public NominatimScheduler(double maxRequestsPerSecond, int burst, int maxConcurrent) {
+        this(maxRequestsPerSecond, burst, maxConcurrent, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * NominatimScheduler-konstruktor
+     * @param maxRequestsPerSecond hur många anrop som får startas per sekund i snitt
+     * @param burst hur många anrop som får startas direkt efter en lugn period
+     * @param maxConcurrent max antal anrop som pågår samtidigt
+     * @param maxQueued max antal anrop som får vänta på en tråd, vid 1 anrop/s ungefär lika många sekunder
+     */
+    public NominatimScheduler(double maxRequestsPerSecond, int burst, int maxConcurrent, int maxQueued) {
+        if (maxRequestsPerSecond <= 0 || burst <= 0 || maxConcurrent <= 0 || maxQueued <= 0) {
+            throw new IllegalArgumentException("Nominatim limits must be positive");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxRequestsPerSecond);
+        this.burstNanos = (burst - 1) * intervalNanos;
+        this.nextSlot = System.nanoTime();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(maxQueued), r -> {
+                    Thread t = new Thread(r, "nominatim-" + threadCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Köa ett anrop. Det körs när både en tråd och en plats i hastighetsbudgeten är ledig.
+     * @param call själva anropet
+     * @return future med anropets resultat. Misslyckas direkt med
+     *         RejectedExecutionException om kön är full.
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> call) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                awaitSlot();
+                return call.get();
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            System.out.println("Nominatim queue is full, rejecting call");
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Reservera nästa lediga plats i hastighetsbudgeten och vänta tills den infaller
+     * @throws CancellationException om tråden avbryts under väntan, anropet görs då inte
+     */
+    private void awaitSlot() {
+        long wait;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long slot = Math.max(nextSlot, now);
+            wait = slot - now - burstNanos;
+            nextSlot = slot + intervalNanos;
+        }
+
+        if (wait > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for a Nominatim slot");
+            }
+        }
+    }
+}
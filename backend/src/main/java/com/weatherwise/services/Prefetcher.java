@@ -0,0 +1,211 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Weather;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Håller populära städer och koordinatrutor varma. Varje anrop räknas per
+ * plats, och med jämna mellanrum hämtas väder och aktiviteter om för de mest
+ * efterfrågade platserna strax innan de går ut, inom en budget för antal
+ * anrop mot API:erna per minut.
+ */
+public class Prefetcher {
+
+    public static final int DEFAULT_MAX_REFRESHES_PER_MINUTE = 30;
+    public static final int DEFAULT_HOT_KEYS = 20;
+    public static final long DEFAULT_INTERVAL_SECONDS = 30;
+
+    // aktiviteter förnyas så här långt innan ActivityStore anser dem gamla
+    private static final long ACTIVITIES_AHEAD_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // räknarna halveras varje varv, så gammal popularitet klingar av
+    private static final double DECAY = 0.5;
+    private static final double MIN_SCORE = 1.0;
+    private static final int MAX_TRACKED_KEYS = 10_000;
+    private static final int MAX_CATEGORIES_PER_KEY = 16;
+
+    private final WeatherService weatherService;
+    private final LocationService locationService;
+    private final int maxRefreshesPerMinute;
+    private final int hotKeys;
+    private final long intervalSeconds;
+
+    private final Map<String, HotKey> tracked = new ConcurrentHashMap<>();
+    private ScheduledExecutorService executor;
+
+    public Prefetcher(WeatherService weatherService, LocationService locationService) {
+        this(weatherService, locationService, DEFAULT_MAX_REFRESHES_PER_MINUTE, DEFAULT_HOT_KEYS, DEFAULT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Prefetcher-konstruktor
+     * @param weatherService väder som hålls varmt
+     * @param locationService aktiviteter som hålls varma
+     * @param maxRefreshesPerMinute max antal anrop mot API:erna per minut, 0 stänger av
+     * @param hotKeys antal populäraste platser som hålls varma
+     * @param intervalSeconds tid mellan varven
+     */
+    public Prefetcher(WeatherService weatherService, LocationService locationService,
+                      int maxRefreshesPerMinute, int hotKeys, long intervalSeconds) {
+        this.weatherService = weatherService;
+        this.locationService = locationService;
+        this.maxRefreshesPerMinute = maxRefreshesPerMinute;
+        this.hotKeys = hotKeys;
+        this.intervalSeconds = intervalSeconds;
+    }
+
+    /**
+     * Starta bakgrundstråden, om budgeten tillåter några anrop
+     */
+    public void start() {
+        if (maxRefreshesPerMinute <= 0 || hotKeys <= 0) {
+            System.out.println("Prefetching of hot cities is disabled");
+            return;
+        }
+
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "prefetcher");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(this::runSafely, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Räkna ett anrop för en stad
+     * @param city stads namn
+     * @param categories efterfrågade kategorier, eller null
+     */
+    public void recordCity(String city, List<String> categories) {
+        if (city == null || city.isBlank()) {
+            return;
+        }
+        record(weatherService.cacheKey(city), city, 0, 0, categories);
+    }
+
+    /**
+     * Räkna ett anrop för en position. Positioner som delar väder räknas som samma plats.
+     * @param lat latitud
+     * @param lon longitud
+     * @param categories efterfrågade kategorier, eller null
+     */
+    public void recordCoordinates(double lat, double lon, List<String> categories) {
+        record(weatherService.cacheKey(lat, lon), null, lat, lon, categories);
+    }
+
+    private void record(String key, String city, double lat, double lon, List<String> categories) {
+        HotKey hot = tracked.get(key);
+        if (hot == null) {
+            if (tracked.size() >= MAX_TRACKED_KEYS) {
+                return;
+            }
+            hot = tracked.computeIfAbsent(key, k -> new HotKey(key, city, lat, lon));
+        }
+
+        hot.requests.increment();
+        if (categories != null) {
+            for (String category : categories) {
+                if (hot.categories.size() >= MAX_CATEGORIES_PER_KEY) {
+                    break;
+                }
+                hot.categories.add(category);
+            }
+        }
+    }
+
+    private void runSafely() {
+        try {
+            refreshHotKeys();
+        } catch (Exception e) {
+            System.out.println("Prefetcher error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ett varv: uppdatera poängen, välj de populäraste platserna och förnya det
+     * som snart går ut, tills budgeten för varvet är slut
+     */
+    void refreshHotKeys() {
+        List<HotKey> candidates = new ArrayList<>();
+        for (HotKey hot : tracked.values()) {
+            hot.score = hot.score * DECAY + hot.requests.sumThenReset();
+            if (hot.score < MIN_SCORE) {
+                tracked.remove(hot.key, hot);
+            } else {
+                candidates.add(hot);
+            }
+        }
+
+        candidates.sort((a, b) -> Double.compare(b.score, a.score));
+
+        int budget = Math.max(1, (int) (maxRefreshesPerMinute * intervalSeconds / 60));
+        long weatherAheadNanos = TimeUnit.SECONDS.toNanos(intervalSeconds * 2);
+        int refreshed = 0;
+
+        for (int i = 0; i < candidates.size() && i < hotKeys && refreshed < budget; i++) {
+            HotKey hot = candidates.get(i);
+
+            // platser som API:t inte hittar hoppas över tills ett vanligt anrop lyckas igen
+            long freshness = weatherService.freshnessNanos(hot.key);
+            if (freshness > 0) {
+                hot.weatherFailed = false;
+            }
+            if (!hot.weatherFailed && freshness < weatherAheadNanos) {
+                CompletableFuture<Weather> weather = (hot.city != null)
+                        ? weatherService.refreshWeatherAsync(hot.city)
+                        : weatherService.refreshWeatherByCoordinatesAsync(hot.lat, hot.lon);
+                weather.whenComplete((w, error) -> hot.weatherFailed = (w == null));
+                refreshed++;
+            }
+
+            for (String category : hot.categories) {
+                if (refreshed >= budget) {
+                    break;
+                }
+                boolean started = (hot.city != null)
+                        ? locationService.prefetch(hot.city, category, ACTIVITIES_AHEAD_MILLIS)
+                        : locationService.prefetch(hot.lat, hot.lon, category, ACTIVITIES_AHEAD_MILLIS);
+                if (started) {
+                    refreshed++;
+                }
+            }
+        }
+
+        if (refreshed > 0) {
+            System.out.println("Prefetched " + refreshed + " lookups for hot cities");
+        }
+    }
+
+    /**
+     * En plats som räknas. city är null för koordinater.
+     */
+    private static class HotKey {
+        final String key;
+        final String city;
+        final double lat;
+        final double lon;
+        final Set<String> categories = ConcurrentHashMap.newKeySet();
+        final LongAdder requests = new LongAdder();
+
+        // bara prefetcher-tråden läser och skriver poängen
+        double score;
+        volatile boolean weatherFailed;
+
+        HotKey(String key, String city, double lat, double lon) {
+            this.key = key;
+            this.city = city;
+            this.lat = lat;
+            this.lon = lon;
+        }
+    }
+}
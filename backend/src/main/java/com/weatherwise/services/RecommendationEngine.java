@@ -1,6 +1,7 @@
 package com.weatherwise.services;
 
 import com.weatherwise.models.Activity;
+import com.weatherwise.models.Reason;
 import com.weatherwise.models.Recommendation;
 import com.weatherwise.models.Weather;
 
@@ -19,9 +20,25 @@ public class RecommendationEngine {
     private static final int HIGH_HUMIDITY = 80;
 
     private static final int MAX_RESULTS = 15;
+    private static final int PER_CATEGORY_QUOTA = 2;
 
-    public RecommendationEngine() {
+    // beslutstabellens dimensioner: temperaturband, regn/snö, hård vind,
+    // hög luftfuktighet, timme, kategori och inomhus
+    private static final int TEMPERATURE_BANDS = 4;
+    private static final int HOURS = 24;
+    private static final String[] CATEGORIES = {"cafe", "park", "mall", "restaurant", "other"};
+
+    // ett värde inom varje temperaturband, se temperatureBand
+    private static final double[] TEMPERATURE_SAMPLES = {COLD_TEMP - 5, COLD_TEMP + 2, WARM_TEMP - 2, WARM_TEMP + 5};
 
+    private final int[] tableScores;
+    private final int[] tableReasons;
+
+    public RecommendationEngine() {
+        int size = TEMPERATURE_BANDS * 2 * 2 * 2 * HOURS * CATEGORIES.length * 2;
+        tableScores = new int[size];
+        tableReasons = new int[size];
+        compileRules();
     }
 
     /**
@@ -31,48 +48,24 @@ public class RecommendationEngine {
      * @return rekomendation Objekt
      */
     public List<Recommendation> getRecommendations(Weather weather, List<Activity> activities) {
+        // klockan läses en gång per anrop i stället för en gång per aktivitet
+        return getRecommendations(weather, activities, LocalDateTime.now().getHour());
+    }
 
+    /**
+     * Rekommendationer vid en given timme. Vädret ger en rad i beslutstabellen,
+     * och varje aktivitet är sedan bara ett uppslag på kategori och inomhus.
+     * @param weather väder objekt
+     * @param activities Lista av aktiviteter
+     * @param hour timme på dygnet, 0-23
+     * @return rekomendation Objekt
+     */
+    List<Recommendation> getRecommendations(Weather weather, List<Activity> activities, int hour) {
         if (weather == null || activities == null || activities.isEmpty()) {
             return new ArrayList<>();
         }
 
-        List<Recommendation> recommendations = new ArrayList<>();
-
-        for (Activity activity : activities) {
-            if (activity == null) {
-                continue;
-            }
-
-            int score = 50;
-            List<String> reasons = new ArrayList<>();
-
-            score = checkTemperature(weather, activity, score, reasons);
-            score = checkCondition(weather, activity, score, reasons);
-            score = checkWind(weather, activity, score, reasons);
-            score = checkHumidity(weather, activity, score, reasons);
-            score = checkCategoryBonus(weather, activity, score, reasons);
-
-            LocalDateTime time = LocalDateTime.now();
-            score = checkCategoryTimeBonus(time, activity, score, reasons);
-
-            if (score > 100) {
-                score = 100;
-            }
-            if (score < 0) {
-                score = 0;
-            }
-
-            String allReasons = buildString(reasons);
-
-            recommendations.add(new Recommendation(activity, score, allReasons));
-
-        }
-
-        recommendations.sort((r1, r2) -> Integer.compare(r2.getScore(), r1.getScore()));
-
-        recommendations = diversifyRecommendations(recommendations);
-
-        recommendations.sort((r1, r2) -> Integer.compare(r2.getScore(), r1.getScore()));
+        List<Recommendation> recommendations = diversifyRecommendations(score(weatherRow(weather, hour), activities));
 
         int indoor = 0;
 int outdoor = 0;
@@ -97,6 +90,157 @@ if (!recommendations.isEmpty()) {
         return recommendations;
     }
 
+    /**
+     * Poäng för aktiviteterna utan diversifiering och insikter, högst poäng först.
+     * Används för en kategori i taget medan de andra fortfarande hämtas.
+     * @param weather väder objekt
+     * @param activities aktiviteter, t.ex. en kategori
+     * @return rekommendationer sorterade på poäng
+     */
+    public List<Recommendation> scoreRecommendations(Weather weather, List<Activity> activities) {
+        if (weather == null || activities == null || activities.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        List<Recommendation> recommendations = score(weatherRow(weather, LocalDateTime.now().getHour()), activities);
+        recommendations.sort(Comparator.comparingInt(Recommendation::getScore).reversed());
+        return recommendations;
+    }
+
+    /**
+     * Slå upp varje aktivitet i beslutstabellens rad för vädret
+     * @param weatherRow rad från weatherRow
+     * @param activities aktiviteter
+     * @return en rekommendation per aktivitet, i samma ordning
+     */
+    private List<Recommendation> score(int weatherRow, List<Activity> activities) {
+        List<Recommendation> recommendations = new ArrayList<>(activities.size());
+
+        for (Activity activity : activities) {
+            if (activity == null) {
+                continue;
+            }
+
+            int cell = (weatherRow * CATEGORIES.length + categoryIndex(activity.getCategory())) * 2
+                    + (activity.isIndoor() ? 1 : 0);
+
+            recommendations.add(new Recommendation(activity, tableScores[cell], tableReasons[cell]));
+        }
+        return recommendations;
+    }
+
+    /**
+     * Fyll beslutstabellen genom att köra regelkedjan en gång för ett exempel
+     * ur varje kombination av band. Reglerna beror bara på de här banden, så
+     * tabellen ger samma poäng och anledningar som kedjan för alla indata.
+     */
+    private void compileRules() {
+        for (int temperature = 0; temperature < TEMPERATURE_BANDS; temperature++) {
+            for (int wet = 0; wet < 2; wet++) {
+                for (int windy = 0; windy < 2; windy++) {
+                    for (int humid = 0; humid < 2; humid++) {
+                        Weather sample = new Weather("", TEMPERATURE_SAMPLES[temperature],
+                                wet == 1 ? "Rain" : "Clear", "",
+                                humid == 1 ? HIGH_HUMIDITY + 5 : HIGH_HUMIDITY - 30,
+                                windy == 1 ? STRONG_WIND + 5 : 0);
+
+                        for (int hour = 0; hour < HOURS; hour++) {
+                            LocalDateTime time = LocalDateTime.of(2000, 1, 1, hour, 0);
+                            int weatherRow = weatherRow(sample, hour);
+
+                            for (int category = 0; category < CATEGORIES.length; category++) {
+                                for (int indoor = 0; indoor < 2; indoor++) {
+                                    Activity activity = new Activity(0, "", CATEGORIES[category], 0, 0, indoor == 1);
+                                    Recommendation scored = scoreByRules(sample, activity, time);
+
+                                    int cell = (weatherRow * CATEGORIES.length + category) * 2 + indoor;
+                                    tableScores[cell] = scored.getScore();
+                                    tableReasons[cell] = scored.getReasonMask();
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Poängsätt en aktivitet med regelkedjan. Används för att bygga beslutstabellen.
+     * @param weather väder
+     * @param activity aktivitet
+     * @param time tidpunkt
+     * @return rekommendation med poäng och anledningar
+     */
+    Recommendation scoreByRules(Weather weather, Activity activity, LocalDateTime time) {
+        int score = 50;
+        List<Reason> reasons = new ArrayList<>();
+
+        score = checkTemperature(weather, activity, score, reasons);
+        score = checkCondition(weather, activity, score, reasons);
+        score = checkWind(weather, activity, score, reasons);
+        score = checkHumidity(weather, activity, score, reasons);
+        score = checkCategoryBonus(weather, activity, score, reasons);
+        score = checkCategoryTimeBonus(time, activity, score, reasons);
+
+        if (score > 100) {
+            score = 100;
+        }
+        if (score < 0) {
+            score = 0;
+        }
+
+        return new Recommendation(activity, score, reasonMask(reasons));
+    }
+
+    /**
+     * Radens index i beslutstabellen för ett väder och en timme
+     * @param weather väder
+     * @param hour timme på dygnet
+     * @return index utan kategori och inomhus
+     */
+    private int weatherRow(Weather weather, int hour) {
+        String condition = weather.getCondition();
+        int wet = condition.equals("Rain") || condition.equals("Snow") ? 1 : 0;
+        int windy = weather.getWindSpeed() > STRONG_WIND ? 1 : 0;
+        int humid = weather.getHumidity() > HIGH_HUMIDITY ? 1 : 0;
+
+        return (((temperatureBand(weather.getTemperature()) * 2 + wet) * 2 + windy) * 2 + humid) * HOURS + hour;
+    }
+
+    /**
+     * Temperaturbanden som reglerna skiljer på: kallt, 10-15, parkväder upp till 20 och varmt
+     * @param temperature temperatur
+     * @return band 0-3
+     */
+    private static int temperatureBand(double temperature) {
+        if (temperature < COLD_TEMP) {
+            return 0;
+        }
+        if (temperature > WARM_TEMP) {
+            return 3;
+        }
+        if (temperature > WARM_TEMP - 5) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static int categoryIndex(String category) {
+        switch (category) {
+            case "cafe":
+                return 0;
+            case "park":
+                return 1;
+            case "mall":
+                return 2;
+            case "restaurant":
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
     /**
      * beräkna poäng baserat på vädertemperaturen
      *
@@ -106,68 +250,141 @@ if (!recommendations.isEmpty()) {
      * @param reasons anledningar
      * @return poäng efter beräkning
      */
-    private int checkTemperature(Weather weather, Activity activity, int score, List<String> reasons) {
+    private int checkTemperature(Weather weather, Activity activity, int score, List<Reason> reasons) {
         double temperature = weather.getTemperature();
 
         if (temperature < COLD_TEMP) {
             if (activity.isIndoor()) {
                 score += 25;
-                reasons.add("Staying indoors may be more comfortable");
+                reasons.add(Reason.COLD_STAY_INDOORS);
             } else {
                 score -= 10;
-                reasons.add("It's quite cold outside");
+                reasons.add(Reason.COLD_OUTSIDE);
             }
         } else if (temperature > WARM_TEMP) {
             if (!activity.isIndoor()) {
                 score += 20;
-                reasons.add("Enjoy the warm weather outdoors");
+                reasons.add(Reason.WARM_OUTDOORS);
             } else {
                 score -= 10;
-                reasons.add("It's a nice day outside");
+                reasons.add(Reason.NICE_DAY_OUTSIDE);
             }
         } else {
-            reasons.add("Weather is nice for most activities");
+            reasons.add(Reason.MILD_WEATHER);
         }
         return score;
     }
 
-    private List<Recommendation> diversifyRecommendations(List<Recommendation> recommendations) {
+    /**
+     * Välj ut de bästa rekommendationerna i ett enda pass: de två bästa i varje
+     * kategori, fyllt på med de bästa övriga upp till MAX_RESULTS. Vid lika poäng
+     * vinner den som kom först i listan.
+     *
+     * @param recommendations alla rekommendationer, i valfri ordning
+     * @return de utvalda rekommendationerna sorterade efter poäng, bäst först
+     */
+    List<Recommendation> diversifyRecommendations(List<Recommendation> recommendations) {
         if (recommendations.isEmpty()) {
             return recommendations;
         }
 
-        Map<String, List<Recommendation>> perCategory = new HashMap<>();
+        // begränsade heapar med den sämsta överst, så varje element kostar O(log k)
+        Map<String, PriorityQueue<Ranked>> perCategory = new HashMap<>();
+        PriorityQueue<Ranked> top = new PriorityQueue<>(MAX_RESULTS + 1, WORST_FIRST);
 
-        for (Recommendation recommendation : recommendations) {
+        for (int i = 0; i < recommendations.size(); i++) {
+            Recommendation recommendation = recommendations.get(i);
             String category = recommendation.getActivity().getCategory();
-            if (!perCategory.containsKey(category)) {
-                perCategory.put(category, new ArrayList<>());
+            PriorityQueue<Ranked> categoryTop = perCategory.computeIfAbsent(category,
+                    c -> new PriorityQueue<>(PER_CATEGORY_QUOTA + 1, WORST_FIRST));
+
+            boolean inCategoryTop = admits(categoryTop, PER_CATEGORY_QUOTA, recommendation.getScore(), i);
+            boolean inTop = admits(top, MAX_RESULTS, recommendation.getScore(), i);
+            if (!inCategoryTop && !inTop) {
+                continue;
             }
-            perCategory.get(category).add(recommendation);
-        }
 
-        List<Recommendation> result = new ArrayList<>();
+            Ranked ranked = new Ranked(recommendation, i);
+            if (inCategoryTop) {
+                offer(categoryTop, PER_CATEGORY_QUOTA, ranked);
+            }
+            if (inTop) {
+                offer(top, MAX_RESULTS, ranked);
+            }
+        }
 
-        for (List<Recommendation> categoryRecommendation : perCategory.values()) {
-            int count = Math.min(2, categoryRecommendation.size());
-            for (int i = 0; i < count; i++) {
-                result.add(categoryRecommendation.get(i));
+        List<Ranked> selected = new ArrayList<>();
+        for (PriorityQueue<Ranked> categoryTop : perCategory.values()) {
+            for (Ranked ranked : categoryTop) {
+                ranked.selected = true;
+                selected.add(ranked);
             }
         }
 
-        for (Recommendation recommendation : recommendations) {
-            if (result.size() >= MAX_RESULTS) {
+        // de bästa övriga finns alltid bland de MAX_RESULTS bästa totalt
+        List<Ranked> candidates = new ArrayList<>(top);
+        candidates.sort(WORST_FIRST.reversed());
+        for (Ranked ranked : candidates) {
+            if (selected.size() >= MAX_RESULTS) {
                 break;
             }
-
-            if (!result.contains(recommendation)) {
-                result.add(recommendation);
+            if (!ranked.selected) {
+                ranked.selected = true;
+                selected.add(ranked);
             }
         }
 
+        selected.sort(WORST_FIRST.reversed());
+
+        List<Recommendation> result = new ArrayList<>(selected.size());
+        for (Ranked ranked : selected) {
+            result.add(ranked.recommendation);
+        }
         return result;
     }
 
+    /**
+     * Avgör om ett element med given poäng och position skulle få plats i heapen
+     */
+    private static boolean admits(PriorityQueue<Ranked> heap, int limit, int score, int position) {
+        if (heap.size() < limit) {
+            return true;
+        }
+        Ranked worst = heap.peek();
+        return score > worst.score || (score == worst.score && position < worst.position);
+    }
+
+    private static void offer(PriorityQueue<Ranked> heap, int limit, Ranked ranked) {
+        heap.add(ranked);
+        if (heap.size() > limit) {
+            heap.poll();
+        }
+    }
+
+    /**
+     * En rekommendation med sin position i indatat, för stabil ordning vid lika poäng
+     */
+    private static class Ranked {
+        final Recommendation recommendation;
+        final int score;
+        final int position;
+        boolean selected;
+
+        Ranked(Recommendation recommendation, int position) {
+            this.recommendation = recommendation;
+            this.score = recommendation.getScore();
+            this.position = position;
+        }
+    }
+
+    // lägre poäng är sämre, och vid lika poäng är en senare position sämre
+    private static final Comparator<Ranked> WORST_FIRST = (a, b) -> {
+        if (a.score != b.score) {
+            return Integer.compare(a.score, b.score);
+        }
+        return Integer.compare(b.position, a.position);
+    };
+
     /**
      * beräkna poäng baserat på vädertemperaturen
      *
@@ -177,16 +394,16 @@ if (!recommendations.isEmpty()) {
      * @param reasons anledningar 
      * @return poäng efter beräkning
      */
-    private int checkCondition(Weather weather, Activity activity, int score, List<String> reasons) {
+    private int checkCondition(Weather weather, Activity activity, int score, List<Reason> reasons) {
         String condition = weather.getCondition();
 
         if (condition.equals("Rain") || condition.equals("Snow")) {
             if (activity.isIndoor()) {
                 score += 30;
-                reasons.add("Indoors is more preferable in with conditions like this");
+                reasons.add(Reason.PRECIPITATION_INDOORS);
             } else {
                 score -= 30;
-                reasons.add("Outdoor activities may be less enjoyable in this weather");
+                reasons.add(Reason.PRECIPITATION_OUTDOORS);
             }
         }
         return score;
@@ -201,13 +418,13 @@ if (!recommendations.isEmpty()) {
      * @param reasons anledningar
      * @return poäng efter beräkning
      */
-    private int checkWind(Weather weather, Activity activity, int score, List<String> reasons) {
+    private int checkWind(Weather weather, Activity activity, int score, List<Reason> reasons) {
         double wind = weather.getWindSpeed();
 
         if (wind > STRONG_WIND) {
             if (!activity.isIndoor()) {
                 score -= 20;
-                reasons.add("You must exceed minimum weight requirements for strong wind conditions");
+                reasons.add(Reason.STRONG_WIND);
             }
         }
 
@@ -223,13 +440,13 @@ if (!recommendations.isEmpty()) {
      * @param reasons anledningar
      * @return poäng efter beräkning
      */
-    private int checkHumidity(Weather weather, Activity activity, int score, List<String> reasons) {
+    private int checkHumidity(Weather weather, Activity activity, int score, List<Reason> reasons) {
         double humidity = weather.getHumidity();
 
         if (humidity > HIGH_HUMIDITY) {
             if (activity.isIndoor()) {
                 score += 10;
-                reasons.add("High humidity makes indoor activities more comfortable");
+                reasons.add(Reason.HIGH_HUMIDITY);
             }
         }
 
@@ -245,39 +462,39 @@ if (!recommendations.isEmpty()) {
      * @param reasons anledningar
      * @return beräknad poäng
      */
-    private int checkCategoryBonus(Weather weather, Activity activity, int score, List<String> reasons) {
+    private int checkCategoryBonus(Weather weather, Activity activity, int score, List<Reason> reasons) {
         double temperature = weather.getTemperature();
         String category = activity.getCategory();
 
         if (category.equals("cafe") && temperature < COLD_TEMP) {
             score += 10;
-            reasons.add("A warm cafe is perfect for cold weather");
+            reasons.add(Reason.COLD_CAFE);
         }
         if (category.equals("park") && temperature > WARM_TEMP - 5) {
             score += 15;
-            reasons.add("Great weather for enjoying the outdoors in the park");
+            reasons.add(Reason.PARK_WEATHER);
         }
 
         return score;
     }
 
-    private int checkCategoryTimeBonus(LocalDateTime time, Activity activity, int score, List<String> reasons) {
+    private int checkCategoryTimeBonus(LocalDateTime time, Activity activity, int score, List<Reason> reasons) {
         String category = activity.getCategory();
         int hour = time.getHour();
 
         if (category.equals("mall") && hour >= 10 && hour < 19) {
             score += 5;
-            reasons.add("Stores are open for shopping");
+            reasons.add(Reason.STORES_OPEN);
             return score;
         }
         if (category.equals("cafe") && ((hour >= 7 && hour < 10) || (hour >= 14 && hour < 17))) {
             score += 5;
-            reasons.add("Good time for a fika");
+            reasons.add(Reason.FIKA_TIME);
             return score;
         }
         if (category.equals("restaurant") && ((hour >= 11 && hour < 14) || (hour >= 18 && hour < 21))){
             score += 5;
-            reasons.add("Ideal time for a warm meal");
+            reasons.add(Reason.MEAL_TIME);
             return score;
         }
 
@@ -285,16 +502,16 @@ if (!recommendations.isEmpty()) {
     }
 
     /**
-     * bygga en sträng med alla anledningar
+     * bygga en bitmask med alla anledningar
      * @param reasons anledningar
-     * @return en sträng med anledningar
+     * @return bitmask, se Reason
      */
-    private String buildString(List<String> reasons) {
-        if (reasons.isEmpty()) {
-            return "Weather is suitable for this activity";
+    private int reasonMask(List<Reason> reasons) {
+        int mask = 0;
+        for (Reason reason : reasons) {
+            mask |= reason.bit();
         }
-
-        return String.join(". ", reasons);
+        return mask;
     }
 
 }
@@ -0,0 +1,126 @@
+package com.weatherwise.services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache för färdigserialiserade svar. Ett svar sparas som JSON-bytes med en
+ * ETag, så att en träff kan skickas direkt utan att räkna om rekommendationerna
+ * eller serialisera något, och en klient med samma ETag får 304.
+ */
+public class ResponseCache {
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private final ObjectMapper mapper = ResponseMapper.objectMapper();
+    private final TtlCache<CachedResponse> cache;
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * ResponseCache-konstruktor
+     * @param maxTtlSeconds längsta tid ett svar sparas, normalt vädercachens TTL
+     * @param maxSize max antal svar i cachen
+     */
+    public ResponseCache(long maxTtlSeconds, int maxSize) {
+        this.cache = new TtlCache<>(maxTtlSeconds, maxSize);
+        MetricsRegistry.global().registerCache("responses", cache::getHitCount, misses::sum);
+    }
+
+    /**
+     * Normaliserad nyckel för ett anrop: plats, kategorierna normaliserade i sorterad ordning och svarsformat
+     * @param location normaliserad plats, t.ex. vädercachens nyckel
+     * @param categories kategorier
+     * @param variant t.ex. "codes" om anledningarna skickas som koder
+     * @return cachenyckel
+     */
+    public static String key(String location, List<String> categories, String variant) {
+        return location + "|" + String.join(",", new TreeSet<>(Categories.normalize(categories))) + "|" + variant;
+    }
+
+    /**
+     * Hämta ett sparat svar
+     * @param key nyckel från key
+     * @return svaret, eller null om det saknas eller har gått ut
+     */
+    public CachedResponse get(String key) {
+        CachedResponse cached = cache.getIfPresent(key);
+        if (cached == null) {
+            // getIfPresent räknar bara träffar
+            misses.increment();
+        }
+        return cached;
+    }
+
+    /**
+     * Serialisera och spara ett svar
+     * @param key nyckel från key
+     * @param body svaret
+     * @param ttlNanos hur länge svaret är giltigt, t.ex. tills vädret det bygger på går ut
+     * @return det sparade svaret
+     */
+    public CachedResponse put(String key, Object body, long ttlNanos) throws JsonProcessingException {
+        byte[] json = mapper.writeValueAsBytes(body);
+        CachedResponse response = new CachedResponse(json, etag(json));
+        if (ttlNanos > 0) {
+            cache.put(key, response, ttlNanos);
+        }
+        return response;
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder tag = new StringBuilder("\"");
+            for (int i = 0; i < 12; i++) {
+                tag.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+                tag.append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return tag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Ett serialiserat svar med sin ETag
+     */
+    public static class CachedResponse {
+        private final byte[] body;
+        private final String etag;
+
+        CachedResponse(byte[] body, String etag) {
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public byte[] getBody() { return body; }
+        public String getEtag() { return etag; }
+
+        /**
+         * Avgör om klienten redan har det här svaret
+         * @param ifNoneMatch If-None-Match från anropet, eller null
+         * @return true om svaret kan besvaras med 304
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) {
+                    t = t.substring(2);
+                }
+                if (t.equals(etag) || t.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
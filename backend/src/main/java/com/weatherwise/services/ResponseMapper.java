@@ -0,0 +1,132 @@
+package com.weatherwise.services;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+import io.javalin.http.Context;
+import io.javalin.json.JsonMapper;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * JSON för allt API:t skickar. En gemensam, förkonfigurerad ObjectMapper med
+ * Blackbird (getters anropas via genererade lambdas i stället för reflection)
+ * som utelämnar null-fält, t.ex. insiktsfälten som bara finns på första
+ * rekommendationen. Svaren skrivs som UTF-8-bytes direkt, utan att först
+ * byggas som en String, och Jacksons återanvända buffertar används per tråd.
+ */
+public class ResponseMapper implements JsonMapper {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .registerModule(new BlackbirdModule())
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            // svaret ska kunna skrivas vidare efter ett värde, t.ex. NDJSON
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private static final ObjectWriter WRITER = MAPPER.writer();
+
+    /**
+     * Den gemensamma ObjectMappern, för kod som serialiserar själv som ResponseCache
+     * @return trådsäker mapper, får inte konfigureras om
+     */
+    public static ObjectMapper objectMapper() {
+        return MAPPER;
+    }
+
+    /**
+     * Skriv ett svar direkt till svarets ström. Jackson kodar i sina återanvända
+     * buffertar och skickar dem vidare när de fylls, hela svaret byggs aldrig
+     * som en byte-array eller String.
+     * @param ctx anropet, status och headers ska redan vara satta
+     * @param obj värdet att skicka
+     */
+    public static void writeJson(Context ctx, Object obj) {
+        ctx.contentType("application/json");
+        try {
+            WRITER.writeValue(ctx.outputStream(), obj);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public String toJsonString(@NotNull Object obj, @NotNull Type type) {
+        try {
+            return writerFor(type).writeValueAsString(obj);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Används av ctx.jsonStream. Javalins standardmapper gör detta med en pipe
+     * och en extra tråd per svar, här serialiseras värdet till en byte-array.
+     * Svar som ska skrivas direkt till strömmen går via writeJson.
+     */
+    @NotNull
+    @Override
+    public InputStream toJsonStream(@NotNull Object obj, @NotNull Type type) {
+        try {
+            return new ByteArrayInputStream(writerFor(type).writeValueAsBytes(obj));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * ctx.json skickar objektets egen klass som typ, då räcker mapperns
+     * cachade serializer och ingen ObjectWriter behöver byggas per anrop
+     */
+    private static ObjectWriter writerFor(Type type) {
+        return type instanceof Class ? WRITER : MAPPER.writerFor(MAPPER.constructType(type));
+    }
+
+    @Override
+    public void writeToOutputStream(@NotNull Stream<?> stream, @NotNull OutputStream outputStream) {
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(outputStream)) {
+            generator.writeStartArray();
+            for (Iterator<?> it = stream.iterator(); it.hasNext(); ) {
+                MAPPER.writeValue(generator, it.next());
+            }
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public <T> T fromJsonString(@NotNull String json, @NotNull Type targetType) {
+        try {
+            return MAPPER.readValue(json, MAPPER.constructType(targetType));
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public <T> T fromJsonStream(@NotNull InputStream json, @NotNull Type targetType) {
+        try {
+            return MAPPER.readValue(json, MAPPER.constructType(targetType));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
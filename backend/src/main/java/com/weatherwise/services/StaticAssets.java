@@ -0,0 +1,249 @@
+package com.weatherwise.services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Frontendens filer, lästa en gång vid start och hållna i minnet. Varje fil
+ * får ett namn med innehållets hash (app.3f2a9c1e.js) och gzippas i förväg
+ * med högsta nivå, och index.html skrivs om så att den pekar på de namnen.
+ * Filerna med hash ändras aldrig och kan cachas för alltid av webbläsaren,
+ * medan index.html och de vanliga namnen alltid valideras med ETag.
+ */
+public class StaticAssets {
+
+    public static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    public static final String REVALIDATE = "no-cache";
+
+    private static final int HASH_LENGTH = 8;
+
+    private final Map<String, Asset> assets = new LinkedHashMap<>();
+
+    /**
+     * Läs in filerna från classpath
+     * @param directory katalog på classpath, t.ex. "/public"
+     * @param index sidan vars referenser till de andra filerna skrivs om, t.ex. "index.html"
+     * @param files filerna som sidan pekar på, t.ex. "style.css" och "app.js"
+     * @return filerna, redo att serveras
+     */
+    public static StaticAssets load(String directory, String index, String... files) {
+        StaticAssets loaded = new StaticAssets();
+        Map<String, String> renamed = new LinkedHashMap<>();
+
+        for (String file : files) {
+            byte[] body = read(directory + "/" + file);
+            String hash = hex(sha256(body), HASH_LENGTH);
+            String fingerprinted = fingerprint(file, hash);
+            renamed.put(file, fingerprinted);
+
+            // samma innehåll under båda namnen, gamla sidor som pekar på app.js fungerar fortfarande
+            Asset asset = new Asset(body, contentType(file), "\"" + hash + "\"");
+            loaded.assets.put("/" + fingerprinted, asset.withCacheControl(IMMUTABLE));
+            loaded.assets.put("/" + file, asset.withCacheControl(REVALIDATE));
+        }
+
+        String html = new String(read(directory + "/" + index), StandardCharsets.UTF_8);
+        for (Map.Entry<String, String> e : renamed.entrySet()) {
+            html = html.replace("href=\"" + e.getKey() + "\"", "href=\"" + e.getValue() + "\"")
+                    .replace("src=\"" + e.getKey() + "\"", "src=\"" + e.getValue() + "\"");
+        }
+        byte[] page = html.getBytes(StandardCharsets.UTF_8);
+        Asset indexAsset = new Asset(page, contentType(index), "\"" + hex(sha256(page), HASH_LENGTH) + "\"")
+                .withCacheControl(REVALIDATE);
+        loaded.assets.put("/", indexAsset);
+        loaded.assets.put("/" + index, indexAsset);
+
+        long identity = 0;
+        long gzipped = 0;
+        for (String file : files) {
+            Asset asset = loaded.assets.get("/" + file);
+            identity += asset.getBody().length;
+            gzipped += asset.getBody("gzip").length;
+        }
+        System.out.println("Static assets: " + renamed.values() + ", " + identity + " bytes, " + gzipped + " gzipped");
+        return loaded;
+    }
+
+    /**
+     * Hämta en fil
+     * @param path sökväg i anropet, t.ex. "/app.3f2a9c1e.js"
+     * @return filen, eller null om den inte finns
+     */
+    public Asset get(String path) {
+        return assets.get(path);
+    }
+
+    /**
+     * Alla sökvägar som kan serveras
+     * @return sökvägar, t.ex. "/", "/index.html" och "/app.3f2a9c1e.js"
+     */
+    public Collection<String> paths() {
+        return assets.keySet();
+    }
+
+    private static String fingerprint(String file, String hash) {
+        int dot = file.lastIndexOf('.');
+        return dot < 0 ? file + "." + hash : file.substring(0, dot) + "." + hash + file.substring(dot);
+    }
+
+    private static String contentType(String file) {
+        String name = file.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".html")) return "text/html; charset=utf-8";
+        if (name.endsWith(".css")) return "text/css; charset=utf-8";
+        if (name.endsWith(".js")) return "text/javascript; charset=utf-8";
+        if (name.endsWith(".svg")) return "image/svg+xml";
+        if (name.endsWith(".png")) return "image/png";
+        return "application/octet-stream";
+    }
+
+    private static byte[] read(String resource) {
+        try (InputStream in = StaticAssets.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException(resource + " not found on classpath");
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read " + resource, e);
+        }
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 3 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(out) {
+            { def.setLevel(Deflater.BEST_COMPRESSION); }
+        }) {
+            gz.write(body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] sha256(byte[] body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(body);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] digest, int length) {
+        StringBuilder hex = new StringBuilder(length);
+        for (int i = 0; i < length / 2; i++) {
+            hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(digest[i] & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * En fil med sina förkomprimerade varianter
+     */
+    public static class Asset {
+        private final byte[] body;
+        private final byte[] gzipped;
+        private final String contentType;
+        private final String etag;
+        private final String cacheControl;
+
+        Asset(byte[] body, String contentType, String etag) {
+            this(body, gzip(body), contentType, etag, REVALIDATE);
+        }
+
+        private Asset(byte[] body, byte[] gzipped, String contentType, String etag, String cacheControl) {
+            this.body = body;
+            // små filer kan bli större av gzip, då skickas de som de är
+            this.gzipped = gzipped.length < body.length ? gzipped : null;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.cacheControl = cacheControl;
+        }
+
+        Asset withCacheControl(String cacheControl) {
+            return new Asset(body, gzipped != null ? gzipped : body, contentType, etag, cacheControl);
+        }
+
+        public byte[] getBody() { return body; }
+        public String getContentType() { return contentType; }
+        public String getCacheControl() { return cacheControl; }
+
+        /**
+         * Bästa kodningen som klienten accepterar
+         * @param acceptEncoding Accept-Encoding från anropet, eller null
+         * @return "gzip", eller null om filen ska skickas okomprimerad
+         */
+        public String encodingFor(String acceptEncoding) {
+            if (gzipped == null || acceptEncoding == null) {
+                return null;
+            }
+            for (String part : acceptEncoding.split(",")) {
+                String[] tokens = part.trim().split(";");
+                String coding = tokens[0].trim().toLowerCase(Locale.ROOT);
+                if (!coding.equals("gzip") && !coding.equals("*")) {
+                    continue;
+                }
+                // gzip;q=0 betyder att klienten inte vill ha gzip
+                boolean refused = false;
+                for (int i = 1; i < tokens.length; i++) {
+                    String param = tokens[i].trim().replace(" ", "");
+                    if (param.matches("q=0(\\.0*)?")) {
+                        refused = true;
+                    }
+                }
+                if (!refused) {
+                    return "gzip";
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Innehållet i en viss kodning
+         * @param encoding från encodingFor, null för okomprimerat
+         * @return bytes att skicka
+         */
+        public byte[] getBody(String encoding) {
+            return "gzip".equals(encoding) && gzipped != null ? gzipped : body;
+        }
+
+        /**
+         * ETag för en viss kodning, gzip och okomprimerat är olika representationer
+         * @param encoding från encodingFor, null för okomprimerat
+         * @return ETag inom citattecken
+         */
+        public String getEtag(String encoding) {
+            return "gzip".equals(encoding) ? etag.substring(0, etag.length() - 1) + "-gzip\"" : etag;
+        }
+
+        /**
+         * Avgör om klienten redan har filen
+         * @param ifNoneMatch If-None-Match från anropet, eller null
+         * @return true om anropet kan besvaras med 304
+         */
+        public boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.startsWith("W/")) {
+                    t = t.substring(2);
+                }
+                if (t.equals(etag) || t.equals(getEtag("gzip")) || t.equals("*")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
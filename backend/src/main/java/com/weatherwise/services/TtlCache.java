@@ -0,0 +1,251 @@
+package com.weatherwise.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * In-process cache med TTL och storleksgräns. Samtidiga missar på samma nyckel
+ * delar på ett enda anrop till loadern (single-flight) i stället för att alla
+ * går mot API:t samtidigt.
+ * Null-värden cachas aldrig, så ett misslyckat anrop provas igen nästa gång.
+ * Utgångna värden kan sparas en tid till, så att det senast kända värdet kan
+ * visas medan ett nytt hämtas eller när API:t inte svarar.
+ */
+public class TtlCache<V> {
+
+    private final long ttlNanos;
+    private final long staleNanos;
+    private final int maxSize;
+
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * TtlCache-konstruktor
+     * @param ttlSeconds hur länge ett värde är giltigt
+     * @param maxSize max antal nycklar innan äldsta poster kastas ut
+     */
+    public TtlCache(long ttlSeconds, int maxSize) {
+        this(ttlSeconds, maxSize, 0);
+    }
+
+    /**
+     * TtlCache-konstruktor som sparar utgångna värden för getStale
+     * @param ttlSeconds hur länge ett värde är giltigt
+     * @param maxSize max antal nycklar innan äldsta poster kastas ut
+     * @param staleSeconds hur länge ett utgånget värde sparas efter TTL
+     */
+    public TtlCache(long ttlSeconds, int maxSize, long staleSeconds) {
+        if (ttlSeconds <= 0 || maxSize <= 0 || staleSeconds < 0) {
+            throw new IllegalArgumentException("ttlSeconds and maxSize must be positive, staleSeconds not negative");
+        }
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.staleNanos = TimeUnit.SECONDS.toNanos(staleSeconds);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Hämta ett värde ur cachen, eller ladda det om det saknas eller har gått ut.
+     * Om en annan tråd redan laddar samma nyckel väntar vi på dess resultat.
+     * @param key cachenyckel
+     * @param loader hämtar ett nytt värde (får returnera null)
+     * @return cachat eller nyladdat värde, eller null
+     */
+    public V get(String key, Supplier<V> loader) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        misses.increment();
+
+        return load(key, loader, true);
+    }
+
+    /**
+     * Ladda om ett värde även om det cachade inte har gått ut än, t.ex. strax
+     * innan det går ut. Det gamla värdet ligger kvar tills det nya är klart,
+     * och misslyckas anropet behålls det gamla.
+     * @param key cachenyckel
+     * @param loader hämtar ett nytt värde (får returnera null)
+     * @return nyladdat värde, eller null
+     */
+    public V refresh(String key, Supplier<V> loader) {
+        return load(key, loader, false);
+    }
+
+    private V load(String key, Supplier<V> loader, boolean reuseFresh) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, mine);
+        if (existing != null) {
+            return existing.join();
+        }
+
+        try {
+            // en annan tråd kan ha hunnit bli klar mellan kontrollen ovan och putIfAbsent
+            Entry<V> entry = reuseFresh ? entries.get(key) : null;
+            V value = (entry != null && !entry.isExpired(System.nanoTime())) ? entry.value : loader.get();
+            if (value != null) {
+                put(key, value);
+            }
+            mine.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    /**
+     * Hämta ett värde utan att ladda det
+     * @param key cachenyckel
+     * @return värdet om det finns och inte har gått ut, annars null
+     */
+    public V getIfPresent(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        long now = System.nanoTime();
+        if (entry.isExpired(now)) {
+            if (entry.isExpired(now - staleNanos)) {
+                entries.remove(key, entry);
+            }
+            return null;
+        }
+
+        entry.lastAccess = now;
+        hits.increment();
+        return entry.value;
+    }
+
+    /**
+     * Hämta det senast kända värdet även om det har gått ut, utan att räknas som träff
+     * @param key cachenyckel
+     * @return värdet om det inte är äldre än TTL plus staleSeconds, annars null
+     */
+    public V getStale(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.isExpired(System.nanoTime() - staleNanos)) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Om nyckeln håller på att laddas just nu
+     * @param key cachenyckel
+     * @return true om get eller refresh väntar på loadern
+     */
+    public boolean isLoading(String key) {
+        return inFlight.containsKey(key);
+    }
+
+    /**
+     * Lägg in ett värde direkt i cachen
+     * @param key cachenyckel
+     * @param value värde
+     */
+    public void put(String key, V value) {
+        put(key, value, ttlNanos);
+    }
+
+    /**
+     * Lägg in ett värde som ska gå ut tidigare än cachens TTL
+     * @param key cachenyckel
+     * @param value värde
+     * @param ttlNanos hur länge värdet är giltigt, högst cachens TTL
+     */
+    public void put(String key, V value, long ttlNanos) {
+        long now = System.nanoTime();
+        entries.put(key, new Entry<>(value, now + Math.min(ttlNanos, this.ttlNanos), now));
+        if (entries.size() > maxSize) {
+            evict(now);
+        }
+    }
+
+    /**
+     * Hur länge ett värde är giltigt till, utan att räknas som en träff
+     * @param key cachenyckel
+     * @return återstående tid i nanosekunder, 0 om värdet saknas eller har gått ut
+     */
+    public long remainingNanos(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return 0;
+        }
+        return Math.max(0, entry.expiresAt - System.nanoTime());
+    }
+
+    public void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Kasta först ut poster som är för gamla även för getStale, och om det inte
+     * räcker de poster som använts minst nyligen tills vi ligger på 90 % av
+     * maxstorleken. Utgångna poster som fortfarande får visas som gamla ligger
+     * kvar, det är när det är trångt som de behövs.
+     * @param now aktuell tid i nanosekunder
+     */
+    private synchronized void evict(long now) {
+        if (entries.size() <= maxSize) {
+            return;
+        }
+
+        entries.entrySet().removeIf(e -> e.getValue().isExpired(now - staleNanos));
+
+        int target = Math.max(1, (int) (maxSize * 0.9));
+        int overflow = entries.size() - target;
+        if (overflow <= 0) {
+            return;
+        }
+
+        List<Map.Entry<String, Entry<V>>> snapshot = new ArrayList<>(entries.entrySet());
+        snapshot.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+        for (int i = 0; i < overflow && i < snapshot.size(); i++) {
+            Map.Entry<String, Entry<V>> e = snapshot.get(i);
+            entries.remove(e.getKey(), e.getValue());
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+        volatile long lastAccess;
+
+        Entry(V value, long expiresAt, long lastAccess) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.lastAccess = lastAccess;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.weatherwise.services;
+
+import kong.unirest.GetRequest;
+import kong.unirest.HttpResponse;
+import kong.unirest.Unirest;
+import kong.unirest.UnirestInstance;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * UpstreamClient med en egen Unirest-instans i stället för den globala. Anslutningar
+ * återanvänds ur en pool med tak per värd, alla anrop har timeouts och svaren
+ * begärs gzip-komprimerade och packas upp innan de parsas.
+ */
+public class UnirestUpstreamClient implements UpstreamClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 3000;
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_MAX_CONNECTIONS = 100;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 20;
+    public static final long DEFAULT_KEEP_ALIVE_SECONDS = 60;
+
+    private final UnirestInstance unirest;
+
+    public UnirestUpstreamClient() {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS, DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_MAX_CONNECTIONS_PER_HOST, DEFAULT_KEEP_ALIVE_SECONDS);
+    }
+
+    /**
+     * UnirestUpstreamClient-konstruktor
+     * @param connectTimeoutMillis max tid för att öppna en anslutning
+     * @param readTimeoutMillis max tid mellan två paket i svaret
+     * @param maxConnections max antal anslutningar i poolen
+     * @param maxConnectionsPerHost max antal anslutningar till samma värd
+     * @param keepAliveSeconds hur länge en anslutning i poolen får återanvändas
+     */
+    public UnirestUpstreamClient(int connectTimeoutMillis, int readTimeoutMillis, int maxConnections,
+                                 int maxConnectionsPerHost, long keepAliveSeconds) {
+        this.unirest = Unirest.spawnInstance();
+        unirest.config()
+                .connectTimeout(connectTimeoutMillis)
+                .socketTimeout(readTimeoutMillis)
+                .concurrency(maxConnections, maxConnectionsPerHost)
+                .connectionTTL(keepAliveSeconds, TimeUnit.SECONDS)
+                .requestCompression(true)
+                .setDefaultHeader("Accept-Encoding", "gzip");
+    }
+
+    @Override
+    public <T> UpstreamResponse<T> get(String url, Map<String, String> headers, Function<InputStream, T> parser) {
+        GetRequest request = unirest.get(url);
+        headers.forEach(request::header);
+
+        // svaret parsas direkt från strömmen, utan att först läsas in som sträng
+        HttpResponse<T> response = request.asObject(raw -> raw.getStatus() == 200 ? parser.apply(raw.getContent()) : null);
+        return new UpstreamResponse<>(response.getStatus(), response.getStatusText(), response.getBody());
+    }
+}
@@ -0,0 +1,22 @@
+package com.weatherwise.services;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Transport för anrop mot OpenWeather och Nominatim. Tjänsterna går bara
+ * genom det här gränssnittet, så att anslutningspool, timeouts och komprimering
+ * ställs in på ett ställe och transporten kan bytas ut.
+ */
+public interface UpstreamClient {
+
+    /**
+     * Skicka ett GET-anrop. Kroppen parsas direkt från strömmen, och bara om status är 200.
+     * @param url färdig URL
+     * @param headers extra headers, t.ex. User-Agent
+     * @param parser parsar kroppen vid status 200
+     * @return status, statustext och parsad kropp (null vid annan status)
+     */
+    <T> UpstreamResponse<T> get(String url, Map<String, String> headers, Function<InputStream, T> parser);
+}
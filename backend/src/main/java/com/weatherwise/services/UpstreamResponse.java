@@ -0,0 +1,20 @@
+package com.weatherwise.services;
+
+/**
+ * Svar från ett externt API
+ */
+public class UpstreamResponse<T> {
+    private final int status;
+    private final String statusText;
+    private final T body;
+
+    public UpstreamResponse(int status, String statusText, T body) {
+        this.status = status;
+        this.statusText = statusText;
+        this.body = body;
+    }
+
+    public int getStatus() { return status; }
+    public String getStatusText() { return statusText; }
+    public T getBody() { return body; }
+}
@@ -0,0 +1,19 @@
+package com.weatherwise.services;
+
+/**
+ * Ett API anropades inte alls eftersom dess circuit breaker är öppen
+ */
+public class UpstreamUnavailableException extends RuntimeException {
+
+    private final String upstream;
+    private final long retryAfterSeconds;
+
+    public UpstreamUnavailableException(String upstream, long retryAfterSeconds) {
+        super(upstream + " is unavailable, retry in " + retryAfterSeconds + " s");
+        this.upstream = upstream;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public String getUpstream() { return upstream; }
+    public long getRetryAfterSeconds() { return retryAfterSeconds; }
+}
@@ -0,0 +1,290 @@
+package com.weatherwise.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Persistens för användare som en ögonblicksbild (users.json) plus en journal
+ * där varje ändring läggs till som en JSON-rad. En skrivtråd samlar ihop alla
+ * väntande ändringar och gör en fsync per grupp, och skriver med jämna
+ * mellanrum en ny ögonblicksbild och tömmer journalen.
+ */
+public class UserJournal {
+
+    public static final int DEFAULT_COMPACT_EVERY = 1000;
+    public static final long DEFAULT_COMPACT_INTERVAL_SECONDS = 5 * 60;
+
+    private final Path snapshotFile;
+    private final Path journalFile;
+    private final ObjectMapper mapper;
+    private final int compactEvery;
+    private final long compactIntervalNanos;
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+
+    private volatile FileChannel channel;
+    private int writtenSinceCompaction;
+    private long lastCompaction;
+
+    public UserJournal(Path snapshotFile, Path journalFile, ObjectMapper mapper) {
+        this(snapshotFile, journalFile, mapper, DEFAULT_COMPACT_EVERY, DEFAULT_COMPACT_INTERVAL_SECONDS);
+    }
+
+    /**
+     * UserJournal-konstruktor
+     * @param snapshotFile fil med ögonblicksbilden, en JSON-array med alla användare
+     * @param journalFile fil med ändringar sedan ögonblicksbilden, en användare per rad
+     * @param mapper ObjectMapper för User
+     * @param compactEvery antal ändringar innan en ny ögonblicksbild skrivs
+     * @param compactIntervalSeconds max tid mellan ögonblicksbilder när det finns ändringar
+     */
+    public UserJournal(Path snapshotFile, Path journalFile, ObjectMapper mapper,
+                       int compactEvery, long compactIntervalSeconds) {
+        this.snapshotFile = snapshotFile;
+        this.journalFile = journalFile;
+        this.mapper = mapper;
+        this.compactEvery = compactEvery;
+        this.compactIntervalNanos = TimeUnit.SECONDS.toNanos(compactIntervalSeconds);
+    }
+
+    /**
+     * Läs ögonblicksbilden och spela upp journalen ovanpå den. En trasig rad
+     * (t.ex. en halvskriven rad efter en krasch) avbryter uppspelningen där.
+     * Om journalen innehöll något skrivs en ny ögonblicksbild direkt.
+     * @return alla användare
+     */
+    public List<UserService.User> load() throws IOException {
+        Files.createDirectories(snapshotFile.getParent());
+
+        if (!Files.exists(snapshotFile)) {
+            Files.writeString(snapshotFile, "[]", StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        String json = Files.readString(snapshotFile).trim();
+        if (json.isEmpty()) json = "[]";
+
+        List<UserService.User> snapshot = mapper.readValue(json, new TypeReference<List<UserService.User>>() {});
+        if (snapshot == null) snapshot = new ArrayList<>();
+
+        if (!Files.exists(journalFile)) {
+            return snapshot;
+        }
+
+        // ändringar är hela användarposter, så uppspelning är en upsert per användarnamn
+        Map<String, UserService.User> users = new LinkedHashMap<>();
+        List<UserService.User> unnamed = new ArrayList<>();
+        for (UserService.User u : snapshot) {
+            if (u == null) continue;
+            if (u.username == null) {
+                unnamed.add(u);
+            } else {
+                users.putIfAbsent(u.username.trim(), u);
+            }
+        }
+
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) continue;
+                UserService.User u;
+                try {
+                    u = mapper.readValue(line, UserService.User.class);
+                } catch (IOException e) {
+                    System.out.println("Stopping users journal replay at a broken entry: " + e.getMessage());
+                    break;
+                }
+                if (u == null || u.username == null) continue;
+                users.put(u.username.trim(), u);
+                replayed++;
+            }
+        }
+
+        List<UserService.User> result = new ArrayList<>(users.values());
+        result.addAll(unnamed);
+
+        if (replayed > 0) {
+            System.out.println("Replayed " + replayed + " users journal entries");
+            writeSnapshot(result);
+        }
+        Files.deleteIfExists(journalFile);
+
+        return result;
+    }
+
+    /**
+     * Starta skrivtråden
+     * @param lock lås som stänger ute ändringar medan ögonblicksbilden tas
+     * @param snapshotSource kopia av alla användare, anropas med lock hållet
+     */
+    public void start(Lock lock, Supplier<List<UserService.User>> snapshotSource) throws IOException {
+        channel = FileChannel.open(journalFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        lastCompaction = System.nanoTime();
+
+        Thread writer = new Thread(() -> writeLoop(lock, snapshotSource), "users-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Lägg till en ändring i journalen. Användaren serialiseras direkt, så
+     * anroparen ska hålla låset för användaren.
+     * @param user användaren efter ändringen
+     * @return future som blir klar när ändringen ligger på disk
+     */
+    public CompletableFuture<Void> append(UserService.User user) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        if (channel == null) {
+            done.completeExceptionally(new IOException("users journal is not open"));
+            return done;
+        }
+        try {
+            byte[] line = mapper.writeValueAsBytes(user);
+            queue.add(new PendingWrite(line, done));
+        } catch (IOException e) {
+            done.completeExceptionally(e);
+        }
+        return done;
+    }
+
+    private void writeLoop(Lock lock, Supplier<List<UserService.User>> snapshotSource) {
+        List<PendingWrite> batch = new ArrayList<>();
+
+        while (true) {
+            try {
+                PendingWrite first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+
+                if (shouldCompact()) {
+                    compact(lock, snapshotSource, batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                System.out.println("Users journal writer error: " + e.getMessage());
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Skriv en grupp ändringar med en enda write och en enda fsync
+     * @param batch väntande ändringar
+     */
+    private void writeBatch(List<PendingWrite> batch) {
+        int size = 0;
+        for (PendingWrite w : batch) {
+            size += w.line.length + 1;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (PendingWrite w : batch) {
+            buffer.put(w.line).put((byte) '\n');
+        }
+        buffer.flip();
+
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+            writtenSinceCompaction += batch.size();
+            for (PendingWrite w : batch) {
+                w.done.complete(null);
+            }
+        } catch (IOException e) {
+            System.out.println("Could not write users journal: " + e.getMessage());
+            for (PendingWrite w : batch) {
+                w.done.completeExceptionally(e);
+            }
+        }
+    }
+
+    private boolean shouldCompact() {
+        if (writtenSinceCompaction == 0) {
+            return false;
+        }
+        return writtenSinceCompaction >= compactEvery
+                || System.nanoTime() - lastCompaction >= compactIntervalNanos;
+    }
+
+    /**
+     * Skriv en ny ögonblicksbild och töm journalen. Kön töms och kopian tas med
+     * låset hållet, så journalen innehåller exakt ändringarna fram till kopian.
+     * Kraschar vi innan journalen har tömts ger uppspelningen samma tillstånd.
+     */
+    private void compact(Lock lock, Supplier<List<UserService.User>> snapshotSource,
+                         List<PendingWrite> batch) throws IOException {
+        List<UserService.User> users;
+        lock.lock();
+        try {
+            queue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+            }
+            users = snapshotSource.get();
+        } finally {
+            lock.unlock();
+        }
+
+        writeSnapshot(users);
+        channel.truncate(0);
+        channel.force(true);
+
+        writtenSinceCompaction = 0;
+        lastCompaction = System.nanoTime();
+    }
+
+    /**
+     * Skriv ögonblicksbilden till en temporär fil och byt ut den gamla atomärt
+     * @param users alla användare
+     */
+    private void writeSnapshot(List<UserService.User> users) throws IOException {
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        byte[] json = mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(users);
+        try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+            out.write(json);
+            out.getFD().sync();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class PendingWrite {
+        final byte[] line;
+        final CompletableFuture<Void> done;
+
+        PendingWrite(byte[] line, CompletableFuture<Void> done) {
+            this.line = line;
+            this.done = done;
+        }
+    }
+}
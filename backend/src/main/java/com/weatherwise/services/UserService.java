@@ -1,59 +1,112 @@
 package com.weatherwise.services;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class UserService {
 
+    /**
+     * En användare. token och preferredCategories ändras efter att användaren
+     * publicerats, så de är volatile för att läsare utan lås ska se nya värden.
+     * Listan byts alltid ut i stället för att ändras.
+     */
     public static class User {
         public String username;
         public String password;
-        public List<String> preferredCategories = new ArrayList<>();
-        public String token;
+        public volatile List<String> preferredCategories = new ArrayList<>();
+        public volatile String token;
 
         public User() {}
     }
 
     private final ObjectMapper mapper = new ObjectMapper();
 
-    private final Path file = Paths.get("data", "users.json");
+    private final Path file;
+    private final Path journalFile;
+    private final UserJournal journal;
 
-    private List<User> users = new ArrayList<>();
+    // alla användare i registreringsordning, bara för ögonblicksbilder
+    private final Queue<User> users = new ConcurrentLinkedQueue<>();
+
+    // index över users, nycklade på token och trimmat användarnamn
+    private final Map<String, User> byToken = new ConcurrentHashMap<>();
+    private final Map<String, User> byUsername = new ConcurrentHashMap<>();
+
+    // läsningar tar inget lås. Ändringar delar läslåset med varandra (och låser
+    // användaren de ändrar), så att journalen kan ta skrivlåset när den behöver
+    // en ögonblicksbild där alla gjorda ändringar redan ligger i kön
+    final ReentrantReadWriteLock snapshotLock = new ReentrantReadWriteLock();
 
     public UserService() {
+        this(Paths.get("data"));
+    }
+
+    /**
+     * UserService-konstruktor med egen katalog för users.json och journalen, t.ex. vid tester
+     * @param dataDir katalog där användarna sparas
+     */
+    UserService(Path dataDir) {
+        this.file = dataDir.resolve("users.json");
+        this.journalFile = dataDir.resolve("users.journal");
+        this.journal = new UserJournal(file, journalFile, mapper);
+
         loadFromFile();
+        try {
+            journal.start(snapshotLock.writeLock(), this::copyUsers);
+        } catch (Exception e) {
+            // utan journal sparas inga användare, då ska appen inte starta och låtsas att den gör det
+            throw new IllegalStateException("Could not open users journal " + journalFile.toAbsolutePath(), e);
+        }
         System.out.println("Saving users to: " + file.toAbsolutePath());
     }
 
-    public synchronized boolean register(String username, String password, List<String> categories) {
+    public boolean register(String username, String password, List<String> categories) {
         username = trim(username);
         if (username.isEmpty()) return false;
         if (password == null || password.isBlank()) return false;
 
-        if (findByUsername(username) != null) return false;
-
         User u = new User();
         u.username = username;
         u.password = password;
         u.preferredCategories = (categories != null) ? new ArrayList<>(categories) : new ArrayList<>();
         u.token = UUID.randomUUID().toString();
 
-        users.add(u);
-        saveToFile();
+        CompletableFuture<Void> saved;
+        snapshotLock.readLock().lock();
+        try {
+            if (byUsername.putIfAbsent(username, u) != null) return false;
+
+            users.add(u);
+            byToken.put(u.token, u);
+            saved = saveToFile(u);
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+
+        if (!awaitSaved(saved)) {
+            // användaren finns inte på disk, så den ska inte heller finnas i minnet
+            byToken.remove(u.token, u);
+            users.remove(u);
+            byUsername.remove(username, u);
+            return false;
+        }
         return true;
     }
 
-    public synchronized User login(String username, String password) {
+    public User login(String username, String password) {
         username = trim(username);
         if (username.isEmpty()) return null;
         if (password == null) return null;
@@ -62,68 +115,141 @@ public class UserService {
         if (u == null) return null;
         if (!Objects.equals(u.password, password)) return null;
 
-        if (u.token == null || u.token.isBlank()) {
-            u.token = UUID.randomUUID().toString();
-            saveToFile();
+        if (u.token != null && !u.token.isBlank()) return u;
+
+        CompletableFuture<Void> saved = null;
+        String token = null;
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (u) {
+                if (u.token == null || u.token.isBlank()) {
+                    token = UUID.randomUUID().toString();
+                    u.token = token;
+                    byToken.put(token, u);
+                    saved = saveToFile(u);
+                }
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
         }
 
+        if (saved != null && !awaitSaved(saved)) {
+            // en token som inte ligger på disk skulle sluta gälla vid omstart
+            synchronized (u) {
+                if (token.equals(u.token)) {
+                    u.token = null;
+                }
+            }
+            byToken.remove(token, u);
+            return null;
+        }
         return u;
     }
 
-    public synchronized User getByToken(String token) {
+    public User getByToken(String token) {
         if (token == null || token.isBlank()) return null;
 
-        for (User u : users) {
-            if (u != null && Objects.equals(u.token, token)) return u;
-        }
-        return null;
+        return byToken.get(token);
     }
 
-    public synchronized boolean savePreferences(String token, List<String> categories) {
+    public boolean savePreferences(String token, List<String> categories) {
         User u = getByToken(token);
         if (u == null) return false;
 
-        u.preferredCategories = (categories != null) ? new ArrayList<>(categories) : new ArrayList<>();
-        saveToFile();
-        return true;
+        List<String> preferred = (categories != null) ? new ArrayList<>(categories) : new ArrayList<>();
+
+        CompletableFuture<Void> saved;
+        snapshotLock.readLock().lock();
+        try {
+            synchronized (u) {
+                u.preferredCategories = preferred;
+                saved = saveToFile(u);
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+
+        return awaitSaved(saved);
     }
 
     private User findByUsername(String username) {
+        return byUsername.get(username);
+    }
+
+    /**
+     * Bygg om indexen efter att users har lästs in. Vid dubbletter vinner den
+     * första användaren i listan, precis som den linjära sökningen gjorde.
+     */
+    private void rebuildIndexes() {
+        byToken.clear();
+        byUsername.clear();
+
         for (User u : users) {
-            if (u != null && Objects.equals(trim(u.username), username)) return u;
+            byUsername.putIfAbsent(trim(u.username), u);
+            if (u.token != null && !u.token.isBlank()) {
+                byToken.putIfAbsent(u.token, u);
+            }
         }
-        return null;
     }
 
     private void loadFromFile() {
+        users.clear();
         try {
-            Files.createDirectories(file.getParent());
-
-            if (!Files.exists(file)) {
-                Files.writeString(file, "[]", StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            for (User u : journal.load()) {
+                if (u != null) users.add(u);
             }
-
-            String json = Files.readString(file).trim();
-            if (json.isEmpty()) json = "[]";
-
-            users = mapper.readValue(json, new TypeReference<List<User>>() {});
-            if (users == null) users = new ArrayList<>();
-
         } catch (Exception e) {
             System.out.println("Could not load users.json: " + e.getMessage());
-            users = new ArrayList<>();
+            users.clear();
         }
+
+        rebuildIndexes();
+    }
+
+    /**
+     * Lägg ändringen i journalen. Anropas med låset för användaren hållet så att
+     * ändringar av samma användare hamnar i journalen i samma ordning som de gjordes.
+     * @param u den ändrade användaren
+     * @return future som blir klar när ändringen ligger på disk
+     */
+    private CompletableFuture<Void> saveToFile(User u) {
+        return journal.append(u);
     }
 
-    private void saveToFile() {
+    /**
+     * Vänta tills en ändring ligger på disk, utan att hålla något lås
+     * @param saved future från saveToFile
+     * @return true om ändringen sparades
+     */
+    private boolean awaitSaved(CompletableFuture<Void> saved) {
         try {
-            mapper.writerWithDefaultPrettyPrinter().writeValue(file.toFile(), users);
+            saved.join();
+            return true;
         } catch (Exception e) {
-            System.out.println("Could not save users.json: " + e.getMessage());
+            System.out.println("Could not save users journal: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Kopia av alla användare till en ny ögonblicksbild. Listorna i User byts
+     * alltid ut i stället för att ändras, så de kan delas med kopian.
+     * @return kopior av användarna
+     */
+    private List<User> copyUsers() {
+        List<User> copy = new ArrayList<>();
+        for (User u : users) {
+            User c = new User();
+            c.username = u.username;
+            c.password = u.password;
+            c.preferredCategories = u.preferredCategories;
+            c.token = u.token;
+            copy.add(c);
         }
+        return copy;
     }
 
     private String trim(String s) {
         return (s == null) ? "" : s.trim();
     }
-}
\ No newline at end of file
+}
@@ -1,26 +1,137 @@
 package com.weatherwise.services;
 import com.weatherwise.models.Weather;
-import kong.unirest.Unirest;
-import kong.unirest.HttpResponse;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Weather Service-klass som anropar OpenWeather-API:t och returnerar väder,
  * temperatur och vindhastighet.
  */
 public class WeatherService {
-    private static final String API_URL = "https://api.openweathermap.org/data/2.5/weather";
+    public static final String DEFAULT_BASE_URL = "https://api.openweathermap.org";
+    private static final String WEATHER_PATH = "/data/2.5/weather";
+
+    // OpenWeather uppdaterar ungefär var tionde minut
+    public static final long DEFAULT_CACHE_TTL_SECONDS = 600;
+    public static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+    public static final int DEFAULT_COORDINATE_PRECISION = 2;
+    // så länge efter TTL det senast kända vädret kan visas när ett nytt inte går att hämta
+    public static final long DEFAULT_STALE_SECONDS = 3600;
+
+    // plattformstrådar och köplatser för hämtningarna på JVM:er utan virtuella trådar
+    private static final int MAX_FETCH_THREADS = 32;
+    private static final int MAX_QUEUED_FETCHES = 256;
+
     private String apiKey;
-    private final ObjectMapper mapper;
+    private final String apiUrl;
+    private final UpstreamClient client;
+    private final JsonFactory jsonFactory;
+    private final TtlCache<Weather> cache;
+    private final double coordinateScale;
+    private final ExecutorService executor;
+    private final CityResolver resolver;
+    private final MetricsRegistry.UpstreamMetrics metrics = MetricsRegistry.global().upstream("openweather");
 
     /**
      *WeatherService-konstruktor
      * @param apiKey
      */
     public WeatherService(String apiKey) {
+        this(apiKey, DEFAULT_CACHE_TTL_SECONDS, DEFAULT_CACHE_MAX_SIZE, DEFAULT_COORDINATE_PRECISION);
+    }
+
+    /**
+     * WeatherService-konstruktor med inställningar för vädercachen
+     * @param apiKey API-nyckel till OpenWeather
+     * @param cacheTtlSeconds hur länge ett väder är giltigt i cachen
+     * @param cacheMaxSize max antal städer/koordinater i cachen
+     * @param coordinatePrecision antal decimaler som koordinater avrundas till
+     */
+    public WeatherService(String apiKey, long cacheTtlSeconds, int cacheMaxSize, int coordinatePrecision) {
+        this(apiKey, cacheTtlSeconds, cacheMaxSize, coordinatePrecision, DEFAULT_STALE_SECONDS,
+                new UnirestUpstreamClient(), DEFAULT_BASE_URL);
+    }
+
+    /**
+     * WeatherService-konstruktor med egen transport och adress till API:t
+     * @param apiKey API-nyckel till OpenWeather
+     * @param cacheTtlSeconds hur länge ett väder är giltigt i cachen
+     * @param cacheMaxSize max antal städer/koordinater i cachen
+     * @param coordinatePrecision antal decimaler som koordinater avrundas till
+     * @param staleSeconds hur länge efter TTL det senast kända vädret får visas
+     * @param client transport för anropen
+     * @param baseUrl OpenWeathers adress, t.ex. en fejkad server vid tester
+     */
+    public WeatherService(String apiKey, long cacheTtlSeconds, int cacheMaxSize, int coordinatePrecision,
+                          long staleSeconds, UpstreamClient client, String baseUrl) {
+        this(apiKey, cacheTtlSeconds, cacheMaxSize, coordinatePrecision, staleSeconds, client, baseUrl, null);
+    }
+
+    /**
+     * WeatherService-konstruktor som hämtar väder för städer per position
+     * @param apiKey API-nyckel till OpenWeather
+     * @param cacheTtlSeconds hur länge ett väder är giltigt i cachen
+     * @param cacheMaxSize max antal städer/koordinater i cachen
+     * @param coordinatePrecision antal decimaler som koordinater avrundas till
+     * @param staleSeconds hur länge efter TTL det senast kända vädret får visas
+     * @param client transport för anropen
+     * @param baseUrl OpenWeathers adress, t.ex. en fejkad server vid tester
+     * @param resolver slår upp städer till koordinater, eller null för att fråga på namn
+     */
+    public WeatherService(String apiKey, long cacheTtlSeconds, int cacheMaxSize, int coordinatePrecision,
+                          long staleSeconds, UpstreamClient client, String baseUrl, CityResolver resolver) {
         this.apiKey = apiKey;
-        this.mapper = new ObjectMapper();
+        this.resolver = resolver;
+        this.client = client;
+        this.apiUrl = baseUrl + WEATHER_PATH;
+        this.jsonFactory = new JsonFactory();
+        this.cache = new TtlCache<>(cacheTtlSeconds, cacheMaxSize, staleSeconds);
+        this.coordinateScale = Math.pow(10, coordinatePrecision);
+
+        this.executor = createExecutor();
+
+        MetricsRegistry.global().registerCache("weather", cache::getHitCount, cache::getMissCount);
+    }
+
+    /**
+     * Trådarna som väntar på OpenWeather. På Java 21 får varje hämtning en egen
+     * virtuell tråd, så långsamma svar kostar ingen plattformstråd. Äldre JVM:er
+     * får en begränsad trådpool med en kö. När även kön är full körs hämtningen
+     * på den anropande tråden, så att en topp av kalla anrop bromsar in i stället
+     * för att skapa en tråd per anrop.
+     * @return executor för hämtningarna
+     */
+    private static ExecutorService createExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_FETCH_THREADS, MAX_FETCH_THREADS,
+                    60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_FETCHES), r -> {
+                        Thread t = new Thread(r, "openweather-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+            // trådarna avslutas när det är lugnt, precis som i den cachade poolen
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
     }
 
     /**
@@ -34,19 +145,93 @@ public class WeatherService {
             return null;
         }
 
+        // en uppslagen stad delar väder med koordinatsökningar på samma plats
+        CityResolver.Place place = placeIfResolved(city);
+        if (place != null) {
+            Weather weather = getWeatherByCoordinates(place.getLat(), place.getLon());
+            return (weather != null) ? weather.withCity(place.getName()) : null;
+        }
+
         // generera en URL med stad och nyckel;
-        String url = buildUrl(city);
+        return lookup(cityKey(city), () -> fetchWeather(buildUrl(city)));
+    }
+
+    /**
+     * Staden om den redan är uppslagen. Annars slås den upp i bakgrunden och det
+     * här anropet frågar OpenWeather på namn, så att vädret aldrig väntar i kö
+     * bakom aktivitetssökningarna hos Nominatim. Senare anrop får positionen.
+     * @param city stads namn
+     * @return staden, eller null om den inte är uppslagen än
+     */
+    private CityResolver.Place placeIfResolved(String city) {
+        if (resolver == null) {
+            return null;
+        }
+        CityResolver.Place place = resolver.getIfResolved(city);
+        if (place == null) {
+            resolver.resolveAsync(city);
+        }
+        return place;
+    }
+
+    /**
+     * Läs vädret ur cachen. Har det gått ut visas det senast kända vädret direkt,
+     * markerat som gammalt, medan ett nytt hämtas i bakgrunden. Bara om inget
+     * väder finns alls väntar anropet på API:t.
+     * @param key cachenyckel
+     * @param loader hämtar vädret från API:t
+     * @return vädret, eller null om det inte hittades
+     */
+    private Weather lookup(String key, Supplier<Weather> loader) {
+        Weather cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        Weather stale = cache.getStale(key);
+        if (stale != null) {
+            if (!cache.isLoading(key)) {
+                CompletableFuture.runAsync(() -> cache.refresh(key, loader), executor);
+            }
+            return stale.asStale();
+        }
+
+        return cache.get(key, loader);
+    }
+
+    /**
+     * Hämta vädret för en stad utan att blockera den anropande tråden
+     * @param city stads namn
+     * @return future med ett Weather-objekt, eller null om vädret inte hittades
+     */
+    public CompletableFuture<Weather> getWeatherAsync(String city) {
+        return CompletableFuture.supplyAsync(() -> getWeather(city), executor);
+    }
+
+    /**
+     * anropar API:t och parsar svaret
+     * @param url färdig URL
+     * @return ett Weather-objekt, eller null om anropet misslyckades
+     */
+    private Weather fetchWeather(String url) {
         System.out.println("URL: " + url);
 
+        long start = metrics.started();
         try {
-            HttpResponse<String> response = Unirest.get(url).asString();
+            UpstreamResponse<Weather> response = client.get(url, Map.of(), this::parseWeatherResponse);
+            metrics.finished(start, response.getStatus());
             if (response.getStatus() != 200) {
-                System.out.println("Error: " + response.getStatus() + " - " + response.getBody());
+                System.out.println("Error: " + response.getStatus() + " - " + response.getStatusText());
                 return null;
             }
-            return parseWeatherResponse(response.getBody());
+            return response.getBody();
 
+        } catch (UpstreamUnavailableException e) {
+            // brytaren är öppen, anroparen får visa gammalt väder eller svara 503
+            metrics.rejected(start);
+            throw e;
         } catch (Exception e) {
+            metrics.failed(start);
             System.out.println("Error fetching weather data: " + e.getMessage());
             e.printStackTrace();
             return null;
@@ -58,32 +243,121 @@ public class WeatherService {
      * @param json
      * @return ett Weather-objekt
      */
-    private Weather parseWeatherResponse(String json) {
-        try {
-            JsonNode root = mapper.readTree(json);
-
-            String cityName = root.path("name").asText();
-            double temperature = root.path("main").path("temp").asDouble();
-            String condition = root.path("weather").get(0).path("main").asText();
-            String description = root.path("weather").get(0).path("description").asText();
-            int humidity = root.path("main").path("humidity").asInt();
-            double windSpeed = root.path("wind").path("speed").asDouble();
+    Weather parseWeatherResponse(String json) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return readWeather(parser);
+        } catch (Exception e) {
+            metrics.parseFailed();
+            System.out.println("Error parsing weather JSON: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            return new Weather(cityName, temperature, condition, description, humidity, windSpeed);
+    /**
+     * parsa JSON-objektet direkt från svarets byteström
+     * @param json byteström från API:t
+     * @return ett Weather-objekt
+     */
+    Weather parseWeatherResponse(InputStream json) {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            return readWeather(parser);
         } catch (Exception e) {
+            metrics.parseFailed();
             System.out.println("Error parsing weather JSON: " + e.getMessage());
             e.printStackTrace();
             return null;
         }
     }
 
+    /**
+     * Läs ut de fält vi behöver token för token och hoppa över resten,
+     * utan att bygga upp något JSON-träd
+     * @param parser parser placerad före rotobjektet
+     * @return ett Weather-objekt
+     */
+    private Weather readWeather(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a weather object");
+        }
+
+        String cityName = "";
+        double temperature = 0;
+        String condition = null;
+        String description = "";
+        int humidity = 0;
+        double windSpeed = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+
+            if (field.equals("name")) {
+                cityName = parser.getValueAsString("");
+            } else if (field.equals("main") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String mainField = parser.getCurrentName();
+                    parser.nextToken();
+                    if (mainField.equals("temp")) {
+                        temperature = parser.getValueAsDouble();
+                    } else if (mainField.equals("humidity")) {
+                        humidity = parser.getValueAsInt();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if (field.equals("wind") && value == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String windField = parser.getCurrentName();
+                    parser.nextToken();
+                    if (windField.equals("speed")) {
+                        windSpeed = parser.getValueAsDouble();
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else if (field.equals("weather") && value == JsonToken.START_ARRAY) {
+                // bara första elementet i weather-listan används
+                boolean first = true;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    first = false;
+                    condition = "";
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String weatherField = parser.getCurrentName();
+                        parser.nextToken();
+                        if (weatherField.equals("main")) {
+                            condition = parser.getValueAsString("");
+                        } else if (weatherField.equals("description")) {
+                            description = parser.getValueAsString("");
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (condition == null) {
+            throw new JsonParseException(parser, "Weather response has no weather entry");
+        }
+
+        return new Weather(cityName, temperature, condition, description, humidity, windSpeed);
+    }
+
     /**
      * den här funktionen genererar en URL baserad på API-nyckeln och den angivna staden
      * @param city
      * @return en URL med stad
      */
     private String buildUrl(String city) {
-        return API_URL + "?q=" + city + "&appid=" + apiKey + "&units=metric" + "&lang=sv";
+        return apiUrl + "?q=" + URLEncoder.encode(CityNames.canonical(city), StandardCharsets.UTF_8)
+                + "&appid=" + apiKey + "&units=metric" + "&lang=sv";
     }
 
     /**
@@ -93,23 +367,94 @@ public class WeatherService {
      * @return Väder baserat på koordinater
      */
     public Weather getWeatherByCoordinates(double lat, double lon) {
+        // avrunda så att närliggande positioner delar både cachepost och API-anrop
+        long latKey = Math.round(lat * coordinateScale);
+        long lonKey = Math.round(lon * coordinateScale);
 
-        String url = buildUrlByCoordinates(lat, lon);
-        System.out.println("URL: " + url);
+        return lookup(coordinateKey(latKey, lonKey),
+                () -> fetchWeather(buildUrlByCoordinates(latKey / coordinateScale, lonKey / coordinateScale)));
+    }
 
-        try {
-            HttpResponse<String> response = Unirest.get(url).asString();
-            if (response.getStatus() != 200) {
-                System.out.println("Error: " + response.getStatus() + " - " + response.getBody());
-                return null;
-            }
+    /**
+     * Cachenyckel för en stad. Anrop med samma nyckel ger samma väder.
+     * @param city stads namn
+     * @return cachenyckel
+     */
+    public String cacheKey(String city) {
+        CityResolver.Place place = (resolver != null) ? resolver.getIfResolved(city) : null;
+        if (place != null) {
+            return cacheKey(place.getLat(), place.getLon());
+        }
+        return cityKey(city);
+    }
 
-            return parseWeatherResponse(response.getBody());
-        } catch (Exception e) {
-            System.out.println("Error fetching weather data: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+    /**
+     * Cachenyckel för koordinater, avrundade på samma sätt som vid hämtning
+     * @param lat latitud
+     * @param lon longitud
+     * @return cachenyckel
+     */
+    public String cacheKey(double lat, double lon) {
+        return coordinateKey(Math.round(lat * coordinateScale), Math.round(lon * coordinateScale));
+    }
+
+    /**
+     * Hämta om vädret för en stad i bakgrunden och ersätt det cachade
+     * @param city stads namn
+     * @return future med det nya vädret, eller null om anropet misslyckades
+     */
+    public CompletableFuture<Weather> refreshWeatherAsync(String city) {
+        CityResolver.Place place = (resolver != null) ? resolver.getIfResolved(city) : null;
+        if (place != null) {
+            return refreshWeatherByCoordinatesAsync(place.getLat(), place.getLon());
         }
+        return CompletableFuture.supplyAsync(() -> cache.refresh(cityKey(city), () -> fetchWeather(buildUrl(city))), executor);
+    }
+
+    /**
+     * Hämta om vädret för koordinater i bakgrunden och ersätt det cachade
+     * @param lat latitud
+     * @param lon longitud
+     * @return future med det nya vädret, eller null om anropet misslyckades
+     */
+    public CompletableFuture<Weather> refreshWeatherByCoordinatesAsync(double lat, double lon) {
+        long latKey = Math.round(lat * coordinateScale);
+        long lonKey = Math.round(lon * coordinateScale);
+
+        return CompletableFuture.supplyAsync(() -> cache.refresh(coordinateKey(latKey, lonKey),
+                () -> fetchWeather(buildUrlByCoordinates(latKey / coordinateScale, lonKey / coordinateScale))), executor);
+    }
+
+    /**
+     * Hur länge det cachade vädret för en nyckel är färskt
+     * @param cacheKey nyckel från cacheKey
+     * @return återstående tid i nanosekunder, 0 om vädret inte är cachat
+     */
+    public long freshnessNanos(String cacheKey) {
+        return cache.remainingNanos(cacheKey);
+    }
+
+    /**
+     * Hämta väder baserat på koordinater utan att blockera den anropande tråden
+     * @param lat latitud
+     * @param lon longitud
+     * @return future med väder, eller null om vädret inte hittades
+     */
+    public CompletableFuture<Weather> getWeatherByCoordinatesAsync(double lat, double lon) {
+        return CompletableFuture.supplyAsync(() -> getWeatherByCoordinates(lat, lon), executor);
+    }
+
+    /**
+     * normaliserad cachenyckel för en stad, så att "Göteborg " och "goteborg" delar post
+     * @param city stads namn
+     * @return cachenyckel
+     */
+    private String cityKey(String city) {
+        return "city:" + CityNames.key(city);
+    }
+
+    private String coordinateKey(long latKey, long lonKey) {
+        return "coord:" + latKey + ":" + lonKey;
     }
 
     /**
@@ -119,7 +464,7 @@ public class WeatherService {
      * @return url
      */
     private String buildUrlByCoordinates(double lat, double lon) {
-        return API_URL + "?lat=" + lat + "&lon=" + lon + "&appid=" + apiKey + "&units=metric" + "&lang=sv";
+        return apiUrl + "?lat=" + lat + "&lon=" + lon + "&appid=" + apiKey + "&units=metric" + "&lang=sv";
     }
 
 }
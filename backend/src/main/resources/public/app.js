@@ -489,16 +489,100 @@ async function fetchRecommendations(city) {
   if (!categories) return null;
 
   const categoriesStr = categories.join(',');
-  const res = await fetch(`/api/v1/recommendations?city=${encodeURIComponent(city)}&categories=${categoriesStr}`);
+  const res = await fetch(`/api/v1/recommendations?city=${encodeURIComponent(city)}&categories=${encodeURIComponent(categoriesStr)}`);
   if (!res.ok) throw new Error("Kunde inte hämta rekommendationer");
   return await res.json();
 }
 
+/**
+ * Hämta staden som Server-Sent Events: vädret visas direkt och listan fylls på
+ * allteftersom kategorierna blir klara, tills sammanfattningen kommer.
+ * Löser ut med false om strömmen inte gick att använda, så att vanliga anrop tar över.
+ */
+function streamCity(city, categories) {
+  return new Promise((resolve, reject) => {
+    if (typeof EventSource === "undefined") {
+      resolve(false);
+      return;
+    }
+
+    const url = `/api/v1/recommendations/stream?city=${encodeURIComponent(city)}&categories=${encodeURIComponent(categories.join(','))}`;
+    const source = new EventSource(url);
+    let received = false;
+    let partial = [];
+
+    const finish = (fn) => {
+      source.close();
+      fn();
+    };
+
+    source.addEventListener("weather", (e) => {
+      received = true;
+      setWeatherUI(city, JSON.parse(e.data));
+    });
+
+    source.addEventListener("category", (e) => {
+      received = true;
+      const data = JSON.parse(e.data);
+      if (!data.recommendations) return;
+
+      partial = partial.concat(data.recommendations).sort((a, b) => b.score - a.score);
+      loading.style.display = "none";
+      renderRecommendations(partial);
+    });
+
+    source.addEventListener("summary", (e) => {
+      const recs = JSON.parse(e.data).recommendations || [];
+      finish(() => {
+        if (recs.length > 0) {
+          renderRecommendations(recs);
+          renderMarkers(recs);
+          renderInsights(recs[0]);
+          setTimeout(() => {
+            map.invalidateSize(true);
+          }, 50);
+        }
+        resolve(true);
+      });
+    });
+
+    source.addEventListener("error", (e) => {
+      // error-händelser från servern har data, avbrutna anslutningar har det inte
+      if (e.data) {
+        const data = JSON.parse(e.data);
+        finish(() => reject(new Error(data.status === 404 ? "Kunde inte hämta rekommendationer" : (data.error || "Serverfel"))));
+      } else if (!received) {
+        finish(() => resolve(false));
+      } else {
+        finish(() => reject(new Error("Anslutningen bröts")));
+      }
+    });
+  });
+}
+
+/**
+ * Sökningar som redan har visats på sidan. Första gången strömmas svaret så att
+ * något syns direkt, därefter används /api/v1/recommendations, som servern
+ * cachar och webbläsaren kan få 304 på.
+ */
+const streamedSearches = new Set();
+
+function searchKey(city, categories) {
+  return `${city.trim().toLowerCase()}|${[...categories].sort().join(',')}`;
+}
+
 async function loadCity(city) {
   loading.style.display = "block";
   list.innerHTML = "";
 
   try {
+    const categories = getSelectedCategoriesSafe();
+    const key = searchKey(city, categories);
+    if (categories.length > 0 && !streamedSearches.has(key) && await streamCity(city, categories)) {
+      streamedSearches.add(key);
+      return;
+    }
+
     const weather = await fetchWeather(city);
     setWeatherUI(city, weather);
 
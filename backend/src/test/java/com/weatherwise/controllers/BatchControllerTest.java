@@ -0,0 +1,77 @@
+package com.weatherwise.controllers;
+
+import com.weatherwise.services.ResponseMapper;
+import io.javalin.Javalin;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Trasiga anrop till batch-endpointen ska få 400 med ett felmeddelande, som
+ * övriga valideringsfel, och aldrig nå väder- eller aktivitetstjänsterna.
+ */
+class BatchControllerTest {
+
+    private Javalin app;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void start() {
+        app = Javalin.create(config -> {
+            config.showJavalinBanner = false;
+            config.jsonMapper(new ResponseMapper());
+        });
+        new BatchController(null, null, null).registerRoutes(app);
+        app.start(0);
+    }
+
+    @AfterEach
+    void stop() {
+        app.stop();
+    }
+
+    private HttpResponse<String> post(String body) throws Exception {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + app.port()
+                        + "/api/v1/recommendations/batch"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void malformedJsonIsBadRequest() throws Exception {
+        HttpResponse<String> response = post("{\"items\": [{\"city\": \"Stockholm\"");
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"error\""), response.body());
+    }
+
+    @Test
+    void nonJsonBodyIsBadRequest() throws Exception {
+        HttpResponse<String> response = post("city=Stockholm&categories=museum");
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"error\""), response.body());
+    }
+
+    @Test
+    void wrongShapeIsBadRequest() throws Exception {
+        HttpResponse<String> response = post("{\"items\": \"Stockholm\"}");
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"error\""), response.body());
+    }
+
+    @Test
+    void emptyBodyIsBadRequest() throws Exception {
+        HttpResponse<String> response = post("");
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("\"error\""), response.body());
+    }
+}
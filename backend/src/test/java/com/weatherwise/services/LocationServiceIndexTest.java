@@ -0,0 +1,116 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Koordinatsökningar fyller indexet, och en sökning nära en tidigare ska
+ * svaras lokalt så länge området var helt täckt. Täta områden med fler
+ * träffar än ett svar visar ska också räknas som täckta.
+ */
+class LocationServiceIndexTest {
+
+    private static final double LAT = 59.33;
+    private static final double LON = 18.07;
+
+    /**
+     * Nominatim som svarar med ett fast antal platser spridda runt (LAT, LON)
+     */
+    private static class FakeNominatim implements UpstreamClient {
+        private final int places;
+        private final AtomicInteger calls = new AtomicInteger();
+        private final List<String> urls = new ArrayList<>();
+
+        FakeNominatim(int places) {
+            this.places = places;
+        }
+
+        @Override
+        public synchronized <T> UpstreamResponse<T> get(String url, Map<String, String> headers,
+                                                        Function<InputStream, T> parser) {
+            calls.incrementAndGet();
+            urls.add(url);
+
+            StringBuilder json = new StringBuilder("[");
+            for (int i = 0; i < places; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                // platser inom ett par km från mitten, i alla riktningar
+                double lat = LAT + ((i % 7) - 3) * 0.004;
+                double lon = LON + ((i % 11) - 5) * 0.004;
+                json.append(String.format(Locale.ROOT,
+                        "{\"place_id\":%d,\"lat\":\"%.7f\",\"lon\":\"%.7f\",\"class\":\"amenity\",\"type\":\"cafe\","
+                                + "\"display_name\":\"Cafe %d\"}", 1000 + i, lat, lon, i));
+            }
+            json.append(']');
+
+            return new UpstreamResponse<>(200, "OK",
+                    parser.apply(new ByteArrayInputStream(json.toString().getBytes(StandardCharsets.UTF_8))));
+        }
+    }
+
+    private static LocationService service(FakeNominatim nominatim) {
+        return new LocationService(new NominatimScheduler(1000, 1000, 4), null, nominatim, "http://nominatim.test");
+    }
+
+    @Test
+    void denseAreaWithMoreResultsThanShownIsCovered() {
+        FakeNominatim nominatim = new FakeNominatim(25);
+        LocationService service = service(nominatim);
+
+        List<Activity> first = service.getCategoryByCoordinatesAsync(LAT, LON, "cafe").join();
+        assertEquals(10, first.size());
+        assertEquals(1, nominatim.calls.get());
+        assertTrue(nominatim.urls.get(0).contains("limit=40"), nominatim.urls.get(0));
+
+        // en sökning strax intill ligger inom det täckta området och ska inte fråga API:t
+        List<Activity> nearby = service.getCategoryByCoordinatesAsync(LAT + 0.001, LON + 0.001, "cafe").join();
+        assertEquals(10, nearby.size());
+        assertEquals(1, nominatim.calls.get());
+    }
+
+    @Test
+    void answersAreTheNearestActivities() {
+        FakeNominatim nominatim = new FakeNominatim(25);
+        LocationService service = service(nominatim);
+
+        List<Activity> fetched = service.getCategoryByCoordinatesAsync(LAT, LON, "cafe").join();
+        List<Activity> fromIndex = service.getCategoryByCoordinatesAsync(LAT, LON, "cafe").join();
+
+        assertEquals(1, nominatim.calls.get());
+        assertEquals(ids(fetched), ids(fromIndex));
+    }
+
+    @Test
+    void truncatedAreaIsNotCovered() {
+        // lika många träffar som gränsen, det kan finnas fler som API:t inte skickade
+        FakeNominatim nominatim = new FakeNominatim(40);
+        LocationService service = service(nominatim);
+
+        service.getCategoryByCoordinatesAsync(LAT, LON, "cafe").join();
+        service.getCategoryByCoordinatesAsync(LAT + 0.001, LON + 0.001, "cafe").join();
+        assertEquals(2, nominatim.calls.get());
+    }
+
+    private static List<Integer> ids(List<Activity> activities) {
+        List<Integer> ids = new ArrayList<>();
+        for (Activity activity : activities) {
+            ids.add(activity.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,236 @@
+package com.weatherwise.services;
+
+import com.weatherwise.models.Activity;
+import com.weatherwise.models.Recommendation;
+import com.weatherwise.models.Weather;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Beslutstabellen i RecommendationEngine ska ge samma poäng och anledningar
+ * som den ursprungliga regelkedjan för alla väder, kategorier och timmar.
+ * Kedjan finns kopierad här (LegacyRules) som den såg ut innan den skrevs om
+ * till anledningsmasker, så att testet inte bara jämför koden med sig själv.
+ * Testet går över kanterna på varje band, där ett fel i tabellen syns först.
+ */
+class RecommendationEngineRulesTest {
+
+    // under, på och över varje gräns i reglerna (10, 15 och 20 grader), samt NaN
+    private static final double[] TEMPERATURES = {
+            Double.NaN, Double.NEGATIVE_INFINITY, -30, 0,
+            9.99, 10, 10.01, 12,
+            14.99, 15, 15.01, 17,
+            19.99, 20, 20.01, 35, Double.POSITIVE_INFINITY
+    };
+
+    // OpenWeathers huvudgrupper och ett okänt värde
+    private static final String[] CONDITIONS = {
+            "Thunderstorm", "Drizzle", "Rain", "Snow", "Mist", "Smoke", "Haze", "Dust", "Fog",
+            "Sand", "Ash", "Squall", "Tornado", "Clear", "Clouds", "", "rain"
+    };
+
+    private static final double[] WIND_SPEEDS = {0, 24.99, 25, 25.01, 40};
+    private static final int[] HUMIDITIES = {0, 79, 80, 81, 100};
+
+    private static final String[] CATEGORIES = {
+            "cafe", "park", "mall", "restaurant", "museum", "theatre", "cinema", "library",
+            "gallery", "beach", "unknown-category"
+    };
+
+    @Test
+    void tableMatchesRuleChain() {
+        RecommendationEngine engine = new RecommendationEngine();
+        int cases = 0;
+
+        for (double temperature : TEMPERATURES) {
+            for (String condition : CONDITIONS) {
+                for (double wind : WIND_SPEEDS) {
+                    for (int humidity : HUMIDITIES) {
+                        Weather weather = new Weather("Stockholm", temperature, condition, "", humidity, wind);
+
+                        for (int hour = 0; hour < 24; hour++) {
+                            LocalDateTime time = LocalDateTime.of(2024, 6, 1, hour, 30);
+
+                            for (String category : CATEGORIES) {
+                                for (boolean indoor : new boolean[] {false, true}) {
+                                    Activity activity = new Activity(1, "Plats", category, 59.33, 18.07, indoor);
+
+                                    Recommendation legacy = LegacyRules.score(weather, activity, time);
+                                    Recommendation rules = engine.scoreByRules(weather, activity, time);
+                                    List<Recommendation> table = engine.getRecommendations(weather, List.of(activity), hour);
+
+                                    String where = "temperature=" + temperature + " condition=" + condition
+                                            + " wind=" + wind + " humidity=" + humidity + " hour=" + hour
+                                            + " category=" + category + " indoor=" + indoor;
+                                    assertEquals(1, table.size(), where);
+                                    assertEquals(legacy.getScore(), table.get(0).getScore(), where);
+                                    assertEquals(legacy.getReason(), table.get(0).getReason(), where);
+                                    assertEquals(legacy.getScore(), rules.getScore(), where);
+                                    assertEquals(legacy.getReason(), rules.getReason(), where);
+                                    assertEquals(rules.getReasonMask(), table.get(0).getReasonMask(), where);
+                                    cases++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        assertEquals(TEMPERATURES.length * CONDITIONS.length * WIND_SPEEDS.length * HUMIDITIES.length
+                * 24 * CATEGORIES.length * 2, cases);
+    }
+
+    /**
+     * Regelkedjan som den såg ut före beslutstabellen och anledningsmaskerna,
+     * kopierad oförändrad från RecommendationEngine. Ändra den inte för att få
+     * testet att gå igenom, den är facit.
+     */
+    private static final class LegacyRules {
+
+        private static final double COLD_TEMP = 10.0;
+        private static final double WARM_TEMP = 20.0;
+
+        private static final double STRONG_WIND = 25.0;
+        private static final int HIGH_HUMIDITY = 80;
+
+        static Recommendation score(Weather weather, Activity activity, LocalDateTime time) {
+            int score = 50;
+            List<String> reasons = new ArrayList<>();
+
+            score = checkTemperature(weather, activity, score, reasons);
+            score = checkCondition(weather, activity, score, reasons);
+            score = checkWind(weather, activity, score, reasons);
+            score = checkHumidity(weather, activity, score, reasons);
+            score = checkCategoryBonus(weather, activity, score, reasons);
+            score = checkCategoryTimeBonus(time, activity, score, reasons);
+
+            if (score > 100) {
+                score = 100;
+            }
+            if (score < 0) {
+                score = 0;
+            }
+
+            return new Recommendation(activity, score, buildString(reasons));
+        }
+
+        private static int checkTemperature(Weather weather, Activity activity, int score, List<String> reasons) {
+            double temperature = weather.getTemperature();
+
+            if (temperature < COLD_TEMP) {
+                if (activity.isIndoor()) {
+                    score += 25;
+                    reasons.add("Staying indoors may be more comfortable");
+                } else {
+                    score -= 10;
+                    reasons.add("It's quite cold outside");
+                }
+            } else if (temperature > WARM_TEMP) {
+                if (!activity.isIndoor()) {
+                    score += 20;
+                    reasons.add("Enjoy the warm weather outdoors");
+                } else {
+                    score -= 10;
+                    reasons.add("It's a nice day outside");
+                }
+            } else {
+                reasons.add("Weather is nice for most activities");
+            }
+            return score;
+        }
+
+        private static int checkCondition(Weather weather, Activity activity, int score, List<String> reasons) {
+            String condition = weather.getCondition();
+
+            if (condition.equals("Rain") || condition.equals("Snow")) {
+                if (activity.isIndoor()) {
+                    score += 30;
+                    reasons.add("Indoors is more preferable in with conditions like this");
+                } else {
+                    score -= 30;
+                    reasons.add("Outdoor activities may be less enjoyable in this weather");
+                }
+            }
+            return score;
+        }
+
+        private static int checkWind(Weather weather, Activity activity, int score, List<String> reasons) {
+            double wind = weather.getWindSpeed();
+
+            if (wind > STRONG_WIND) {
+                if (!activity.isIndoor()) {
+                    score -= 20;
+                    reasons.add("You must exceed minimum weight requirements for strong wind conditions");
+                }
+            }
+
+            return score;
+        }
+
+        private static int checkHumidity(Weather weather, Activity activity, int score, List<String> reasons) {
+            double humidity = weather.getHumidity();
+
+            if (humidity > HIGH_HUMIDITY) {
+                if (activity.isIndoor()) {
+                    score += 10;
+                    reasons.add("High humidity makes indoor activities more comfortable");
+                }
+            }
+
+            return score;
+        }
+
+        private static int checkCategoryBonus(Weather weather, Activity activity, int score, List<String> reasons) {
+            double temperature = weather.getTemperature();
+            String category = activity.getCategory();
+
+            if (category.equals("cafe") && temperature < COLD_TEMP) {
+                score += 10;
+                reasons.add("A warm cafe is perfect for cold weather");
+            }
+            if (category.equals("park") && temperature > WARM_TEMP - 5) {
+                score += 15;
+                reasons.add("Great weather for enjoying the outdoors in the park");
+            }
+
+            return score;
+        }
+
+        private static int checkCategoryTimeBonus(LocalDateTime time, Activity activity, int score, List<String> reasons) {
+            String category = activity.getCategory();
+            int hour = time.getHour();
+
+            if (category.equals("mall") && hour >= 10 && hour < 19) {
+                score += 5;
+                reasons.add("Stores are open for shopping");
+                return score;
+            }
+            if (category.equals("cafe") && ((hour >= 7 && hour < 10) || (hour >= 14 && hour < 17))) {
+                score += 5;
+                reasons.add("Good time for a fika");
+                return score;
+            }
+            if (category.equals("restaurant") && ((hour >= 11 && hour < 14) || (hour >= 18 && hour < 21))) {
+                score += 5;
+                reasons.add("Ideal time for a warm meal");
+                return score;
+            }
+
+            return score;
+        }
+
+        private static String buildString(List<String> reasons) {
+            if (reasons.isEmpty()) {
+                return "Weather is suitable for this activity";
+            }
+
+            return String.join(". ", reasons);
+        }
+    }
+}
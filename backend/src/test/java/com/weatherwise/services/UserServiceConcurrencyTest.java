@@ -0,0 +1,181 @@
+package com.weatherwise.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Inloggade anrop slår upp användaren på token. De uppslagen ska inte vänta
+ * på registreringar och sparningar, som skriver journalen till disk.
+ */
+class UserServiceConcurrencyTest {
+
+    private static final int USERS = 200;
+    private static final int WRITES = 200;
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void readsKeepCompletingWhileUsersAreSaved() throws Exception {
+        UserService service = new UserService(dataDir);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            assertTrue(service.register("reader-" + i, "secret", List.of("museum")));
+            tokens.add(service.login("reader-" + i, "secret").token);
+        }
+
+        int readers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        AtomicBoolean saving = new AtomicBoolean();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        LongAdder readsDuringSaves = new LongAdder();
+        long[] readsPerThread = new long[readers];
+        CountDownLatch started = new CountDownLatch(readers);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            int reader = r;
+            Thread t = new Thread(() -> {
+                started.countDown();
+                long reads = 0;
+                int i = reader;
+                while (!done.get()) {
+                    String token = tokens.get(i++ % tokens.size());
+                    UserService.User u = service.getByToken(token);
+                    if (u == null || !token.equals(u.token)) {
+                        failure.compareAndSet(null, "Token lookup failed for " + token);
+                        return;
+                    }
+                    reads++;
+                    if (saving.get()) {
+                        readsDuringSaves.increment();
+                    }
+                }
+                readsPerThread[reader] = reads;
+            }, "reader-" + r);
+            t.start();
+            threads.add(t);
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        // registreringar och sparade preferenser väntar båda på att journalen skrivs till disk
+        AtomicInteger writes = new AtomicInteger();
+        for (int i = 0; i < WRITES; i++) {
+            saving.set(true);
+            boolean saved = (i % 2 == 0)
+                    ? service.register("writer-" + i, "secret", List.of("park"))
+                    : service.savePreferences(tokens.get(i % tokens.size()), List.of("cafe", "park"));
+            saving.set(false);
+            assertTrue(saved);
+            writes.incrementAndGet();
+        }
+
+        done.set(true);
+        for (Thread t : threads) {
+            t.join(TimeUnit.SECONDS.toMillis(10));
+        }
+
+        System.out.println(readsDuringSaves.sum() + " token lookups during " + WRITES + " saves with "
+                + readers + " readers");
+
+        assertNull(failure.get());
+        assertEquals(WRITES, writes.get());
+        for (int r = 0; r < readers; r++) {
+            assertTrue(readsPerThread[r] > 0, "reader " + r + " made no progress");
+        }
+
+        // om läsningarna köade bakom sparningarna skulle de bli ungefär lika många som sparningarna
+        assertTrue(readsDuringSaves.sum() > WRITES * (long) readers,
+                readsDuringSaves.sum() + " reads completed during " + WRITES + " saves");
+    }
+
+    @Test
+    void readersAreNotBlockedWhileSnapshotIsTaken() throws Exception {
+        UserService service = new UserService(dataDir);
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            assertTrue(service.register("reader-" + i, "secret", List.of("museum")));
+            tokens.add(service.login("reader-" + i, "secret").token);
+        }
+
+        // journalen håller skrivlåset medan den kopierar användarna till en ny ögonblicksbild
+        service.snapshotLock.writeLock().lock();
+        Thread writer;
+        AtomicBoolean registered = new AtomicBoolean();
+        try {
+            writer = new Thread(() -> registered.set(service.register("late", "secret", List.of("park"))));
+            writer.start();
+
+            int readers = Math.max(2, Runtime.getRuntime().availableProcessors());
+            CountDownLatch finished = new CountDownLatch(readers);
+            AtomicReference<String> failure = new AtomicReference<>();
+            for (int r = 0; r < readers; r++) {
+                int reader = r;
+                new Thread(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        String token = tokens.get((reader + i) % tokens.size());
+                        UserService.User u = service.getByToken(token);
+                        if (u == null || !token.equals(u.token)) {
+                            failure.compareAndSet(null, "Token lookup failed for " + token);
+                            break;
+                        }
+                    }
+                    finished.countDown();
+                }, "reader-" + r).start();
+            }
+
+            assertTrue(finished.await(10, TimeUnit.SECONDS), "readers waited for the snapshot lock");
+            assertNull(failure.get());
+
+            // ändringar ska däremot vänta, annars bevisar testet ingenting
+            writer.join(200);
+            assertTrue(writer.isAlive(), "register did not wait for the snapshot lock");
+            assertTrue(service.snapshotLock.isWriteLocked());
+        } finally {
+            service.snapshotLock.writeLock().unlock();
+        }
+
+        writer.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(registered.get());
+        assertNotNull(service.login("late", "secret"));
+    }
+
+    @Test
+    void startupFailsWhenJournalCannotBeOpened() throws Exception {
+        Path notADirectory = Files.createFile(dataDir.resolve("not-a-directory"));
+        assertThrows(IllegalStateException.class, () -> new UserService(notADirectory));
+    }
+
+    @Test
+    void writesAreVisibleToReadersAndSurviveRestart() {
+        UserService service = new UserService(dataDir);
+        assertTrue(service.register("anna", "secret", List.of("museum")));
+        String token = service.login("anna", "secret").token;
+        assertTrue(service.savePreferences(token, List.of("park", "cafe")));
+
+        assertEquals(List.of("park", "cafe"), service.getByToken(token).preferredCategories);
+
+        UserService restarted = new UserService(dataDir);
+        UserService.User u = restarted.getByToken(token);
+        assertNotNull(u);
+        assertEquals("anna", u.username);
+        assertEquals(List.of("park", "cafe"), u.preferredCategories);
+    }
+}